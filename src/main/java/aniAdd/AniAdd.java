@@ -51,6 +51,11 @@ public class AniAdd implements IAniAdd {
         fileProcessor.Scan(directory);
     }
 
+    @Override
+    public void WatchDirectory(String directory) {
+        fileProcessor.Watch(directory);
+    }
+
     @Override
     public void MarkFileAsWatched(@NotNull String path) {
         val config = getConfiguration().toBuilder()
@@ -63,9 +68,15 @@ public class AniAdd implements IAniAdd {
         fileProcessor.AddFile(path, config);
     }
 
+    @Override
+    public void SetPlaybackActive(boolean active) {
+        processing.setPlaybackActive(active);
+    }
+
     public void Stop() {
         log.info("Terminate AniAdd");
         processing.Terminate();
+        fileProcessor.Terminate();
         api.queueShutdown(_ -> onShutdown.invoke(null));
     }
 }
@@ -7,8 +7,12 @@ public interface IAniAdd {
 
     void ProcessDirectory(String directory);
 
+    void WatchDirectory(String directory);
+
     void MarkFileAsWatched(@NotNull String path);
 
+    void SetPlaybackActive(boolean active);
+
     AniConfiguration getConfiguration();
 
     void Stop();
@@ -5,6 +5,10 @@ import lombok.*;
 import lombok.extern.java.Log;
 
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 @Log
 @Data
@@ -94,6 +98,17 @@ public class AniConfiguration {
      * If true duplicate files will be moved to the folder specified in {@link #duplicatesFolder}
      */
     @Builder.Default private boolean moveDuplicateFiles = false;
+    /**
+     * If true files whose ed2k hash and size match a file in the cache are handled as duplicates right after
+     * hashing, without asking AniDB. Needs {@link #enableFileMove} and {@link #deleteDuplicateFiles} or
+     * {@link #moveDuplicateFiles}.
+     */
+    private boolean resolveDuplicatesLocally;
+    /**
+     * If true files in the persistent cache are queried from AniDB again in the command slots left unused before the
+     * automatic logout, recently aired episodes weekly and all others every few months.
+     */
+    private boolean refreshCacheWhenIdle;
 
     /**
      * The port of the anidb UDP API (default = 9000), default should be correct
@@ -104,6 +119,92 @@ public class AniConfiguration {
      */
     @Builder.Default private String anidbHost = "api.anidb.net";
 
+    /**
+     * The folder to persist information about processed files in (e.g. hashes and AniDB data).
+     * If not set, processed files are only remembered while the application is running.
+     */
+    private String cacheDirectory;
+    /**
+     * How long (in minutes) finished files are kept in memory before they are moved to the cache
+     */
+    @Builder.Default private int finishedFilesRetentionMinutes = 60;
+    /**
+     * How many finished files are kept in memory at most before the oldest are moved to the cache
+     */
+    @Builder.Default private int maxFinishedFilesInMemory = 1000;
+    /**
+     * How long (in seconds) neither size nor modification date of a new file may change before it is considered
+     * completely written (i.e. downloaded) and will be processed.
+     */
+    @Builder.Default private int writeQuietPeriodSeconds = 30;
+    /**
+     * If true files which are still being written are already hashed chunk by chunk, so only the end of the file
+     * has to be read once it is complete. Only enable this if your downloads are written sequentially.
+     */
+    private boolean hashWhileDownloading;
+    /**
+     * If true files are hashed with direct I/O, which bypasses the page cache. Hashing the library then does not
+     * push the files other applications (i.e. media players) are using out of memory. Falls back to normal reads
+     * where the file system does not support it. Compare both with the bench command.
+     */
+    private boolean directIoHashing;
+    /**
+     * If true a file which is not cached under its path, but has the size and the sampled content of a cached file
+     * (i.e. because it was moved or renamed by another application), gets the ed2k hash of the cached file instead
+     * of being hashed
+     */
+    @Builder.Default private boolean identifyByFingerprint = true;
+    /**
+     * If true files recognized by their fingerprint are confirmed by hashing one randomly chosen ed2k chunk
+     */
+    @Builder.Default private boolean fingerprintSpotCheck = true;
+    /**
+     * If true the ed2k hash is stored in the extended attribute user.ed2k of every hashed file and read from there
+     * instead of hashing the file again, as long as the file did not change. Needs a file system with user
+     * attributes (i.e. ext4, XFS, ZFS or Btrfs).
+     */
+    private boolean ed2kExtendedAttribute;
+    /**
+     * How many MiB per second are read at most from each device for hashing, 0 for no limit
+     */
+    private int hashBandwidthLimitMiB;
+    /**
+     * Limits in MiB per second for times of the day which replace {@link #hashBandwidthLimitMiB}, i.e.
+     * "18:00-23:30=20" while people are watching or "01:00-07:00=0" for no limit at night
+     */
+    @Builder.Default private List<String> hashBandwidthSchedule = new ArrayList<>();
+    /**
+     * If true hashing backs off from a device while its reads become slow because it is in use otherwise
+     */
+    private boolean adaptiveHashBandwidth;
+    /**
+     * If true hashing is paused while Kodi plays something (only when connected to Kodi)
+     */
+    private boolean pauseHashingDuringPlayback;
+    /**
+     * The order files are hashed in, see {@link HashOrder}
+     */
+    @Builder.Default private HashOrder hashOrder = HashOrder.DISK_LAYOUT;
+    /**
+     * How many files are hashed at the same time from each device. 1 avoids seeking on spinning disks,
+     * SSDs can benefit from more.
+     */
+    @Builder.Default private int hashStreamsPerDevice = 1;
+    /**
+     * Files hashed at the same time from the device of each of these directories, replacing
+     * {@link #hashStreamsPerDevice}. Written by "bench --tune".
+     */
+    @Builder.Default private Map<String, Integer> hashStreamsByDirectory = new HashMap<>();
+    /**
+     * How many KiB of a file are read at once for hashing
+     */
+    @Builder.Default private int hashBufferSizeKiB = 4096;
+    /**
+     * Which of several hard links to the same file are renamed and moved, see {@link HardLinkPolicy}.
+     * The file is hashed only once either way.
+     */
+    @Builder.Default private HardLinkPolicy hardLinkPolicy = HardLinkPolicy.ALL;
+
     public String getEpisodePath(String relativePath) {
         return Paths.get(tvShowFolder, relativePath).toString();
     }
@@ -119,6 +220,42 @@ public class AniConfiguration {
         private final int value;
     }
 
+    public enum HashOrder {
+        /**
+         * In the order the files were found
+         */
+        ARRIVAL,
+        /**
+         * By directory and inode, which approximates where the files are stored on the disk
+         */
+        DISK_LAYOUT,
+        /**
+         * Smallest files first, for the first results as soon as possible
+         */
+        SMALLEST_FIRST,
+        /**
+         * Most recently modified files first, i.e. new downloads before old files of a rescanned library
+         */
+        NEWEST_FIRST
+    }
+
+    public enum HardLinkPolicy {
+        /**
+         * Every link is renamed and moved, the ones after the first usually end up as duplicates
+         */
+        ALL,
+        /**
+         * Only the link found first, the others stay where they are (i.e. for seeding)
+         */
+        FIRST_FOUND,
+        /**
+         * Only the link found last before the file was identified, i.e. the one linked into the watched folder
+         * after a download completed. The links found so far decide, a link found after the file was renamed is
+         * renamed as well.
+         */
+        LAST_FOUND
+    }
+
     public void fixStorageType() {
         // Fix typo in original version
         if (setStorageType == StorageType.UNKOWN) {
@@ -50,6 +50,12 @@ public class KodiNotificationSubscriber extends WebSocketClient {
                 handleVideoLibraryOnUpdate(parameters);
             }
         }
+        if (isMethod(json, "Player.OnPlay") || isMethod(json, "Player.OnResume") || isMethod(json, "Player.OnAVStart")) {
+            aniAdd.SetPlaybackActive(true);
+        }
+        if (isMethod(json, "Player.OnPause") || isMethod(json, "Player.OnStop")) {
+            aniAdd.SetPlaybackActive(false);
+        }
         if (isResult(json, "episodedetails")) {
             val episodeDetail = gson.fromJson(json.get("result").getAsJsonObject().get("episodedetails").toString(), EpisodeDetail.class);
             log.finest( STR."Episode details: \{episodeDetail}");
@@ -76,6 +82,8 @@ public class KodiNotificationSubscriber extends WebSocketClient {
 
     @Override
     public void onClose(int code, String reason, boolean remote) {
+        // Playback can not be followed while disconnected
+        aniAdd.SetPlaybackActive(false);
         log.warning( STR."Connection closed by \{remote ? "remote peer" : "us"} Code: \{code} Reason: \{reason}. Will try to reconnect in 5s");
         try {
             Thread.sleep(5000);
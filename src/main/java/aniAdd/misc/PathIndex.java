@@ -0,0 +1,65 @@
+package aniAdd.misc;
+
+import lombok.val;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps absolute file paths to values while sharing the directory prefix.
+ * Each directory string is stored once and files are keyed by their name only,
+ * so thousands of episodes in the same folder don't each carry a copy of the full path.
+ * Not thread safe.
+ */
+public class PathIndex<V> {
+    private final Map<String, Map<String, V>> directories = new HashMap<>();
+    private int size;
+
+    public V get(File file) {
+        val children = directories.get(parentOf(file));
+        return children == null ? null : children.get(file.getName());
+    }
+
+    public boolean contains(File file) {
+        return get(file) != null;
+    }
+
+    public V put(File file, V value) {
+        val old = directories.computeIfAbsent(parentOf(file), _ -> new HashMap<>()).put(file.getName(), value);
+        if (old == null) {
+            size++;
+        }
+        return old;
+    }
+
+    public V remove(File file) {
+        val parent = parentOf(file);
+        val children = directories.get(parent);
+        if (children == null) {
+            return null;
+        }
+        val old = children.remove(file.getName());
+        if (old != null) {
+            size--;
+            if (children.isEmpty()) {
+                directories.remove(parent);
+            }
+        }
+        return old;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        directories.clear();
+        size = 0;
+    }
+
+    private static String parentOf(File file) {
+        val parent = file.getAbsoluteFile().getParent();
+        return parent == null ? "" : parent;
+    }
+}
@@ -0,0 +1,170 @@
+package aniAdd.startup.commands;
+
+import aniAdd.config.AniConfiguration;
+import aniAdd.config.AniConfiguration.HashOrder;
+import aniAdd.config.ConfigFileParser;
+import aniAdd.startup.validation.validators.min.Min;
+import lombok.extern.java.Log;
+import lombok.val;
+import picocli.CommandLine;
+import processing.HashBenchmark;
+
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.stream.Stream;
+
+@Log
+@CommandLine.Command(
+        name = "bench",
+        mixinStandardHelpOptions = true,
+        version = "1.0",
+        description = "Compares hashing with and without direct I/O (directIoHashing) by throughput and page cache growth, or the hash orders (hashOrder), or finds the hash streams and buffer size which hash fastest on every device")
+public class BenchCommand implements Callable<Integer> {
+    private static final int BUFFER_SIZE = 4 * 1024 * 1024;
+    private static final int[] TUNED_BUFFER_SIZES = {256 * 1024, 1024 * 1024, 4 * 1024 * 1024, 16 * 1024 * 1024};
+    private static final int[] TUNED_STREAMS = {1, 2, 4, 8};
+
+    @CommandLine.Parameters(description = "The files or directories to hash. Use files which are not in the page cache, i.e. not recently read.", arity = "1..*")
+    List<Path> paths;
+
+    @CommandLine.Option(names = {"--orders"}, description = "Compare the hash orders instead of direct I/O with normal reads", defaultValue = "false")
+    boolean compareOrders;
+
+    @CommandLine.Option(names = {"--tune"}, description = "Measure the read throughput of every device, the hash throughput of a single core and how hashing scales with the number of files hashed at the same time and the buffer size", defaultValue = "false")
+    boolean tune;
+
+    @CommandLine.Option(names = {"--trial-size"}, description = "MiB read per device for every combination of streams and buffer size when tuning", defaultValue = "256")
+    @Min(1) int trialSize;
+
+    @CommandLine.Option(names = {"-c", "--config"}, description = "The config file to write the tuned hashStreamsPerDevice, hashStreamsByDirectory and hashBufferSizeKiB to. Without it they are only logged.")
+    String configPath;
+
+    @CommandLine.Option(names = {"--generate"}, description = "Write a synthetic corpus of files in several directories to the first given directory and use it", defaultValue = "false")
+    boolean generate;
+
+    @CommandLine.Option(names = {"--corpus-files"}, description = "Number of files of the synthetic corpus", defaultValue = "64")
+    @Min(1) int corpusFiles;
+
+    @CommandLine.Option(names = {"--corpus-size"}, description = "Total size of the synthetic corpus in MiB", defaultValue = "2048")
+    @Min(1) int corpusSize;
+
+    @Override
+    public Integer call() throws Exception {
+        val files = new ArrayList<Path>();
+        if (generate) {
+            log.info(STR."Writing \{corpusFiles} files with \{corpusSize} MiB to \{paths.getFirst()}");
+            files.addAll(HashBenchmark.generateCorpus(paths.getFirst(), corpusFiles, corpusSize * 1024L * 1024L));
+        } else {
+            for (val path : paths) {
+                try (Stream<Path> found = Files.walk(path)) {
+                    found.filter(Files::isRegularFile).forEach(files::add);
+                }
+            }
+        }
+        if (files.isEmpty()) {
+            log.severe("No files to hash found");
+            return 1;
+        }
+        if (compareOrders) {
+            return compareOrders(files);
+        }
+        if (tune) {
+            return tune(files);
+        }
+        files.sort(null);
+
+        // Direct I/O first, normal reads afterward would find the files in the page cache
+        val direct = HashBenchmark.run(files, true, BUFFER_SIZE);
+        log(direct);
+        val buffered = HashBenchmark.run(files, false, BUFFER_SIZE);
+        log(buffered);
+
+        if (!direct.hashes().equals(buffered.hashes())) {
+            log.severe("Hashes with and without direct I/O differ");
+            return 1;
+        }
+        if (!direct.directIoUsed()) {
+            log.warning("Direct I/O is not supported for these files, directIoHashing would read them normally");
+        }
+        return 0;
+    }
+
+    private static int compareOrders(List<Path> files) throws Exception {
+        // Direct I/O, so no order profits from files another order left in the page cache
+        for (val order : HashOrder.values()) {
+            val result = HashBenchmark.run(HashBenchmark.sort(files, order), true, BUFFER_SIZE);
+            if (!result.directIoUsed()) {
+                log.warning("Direct I/O is not supported for these files, the results are skewed by the page cache");
+            }
+            log.info(STR."\{order}: \{String.format("%.1f", result.getMibPerSecond())} MiB/s, first file hashed after \{result.firstHash().toMillis()} ms, all after \{result.duration().toMillis()} ms");
+        }
+        return 0;
+    }
+
+    private int tune(List<Path> files) throws Exception {
+        val budget = trialSize * 1024L * 1024L;
+        log.info(STR."Single core ed2k hashing: \{String.format("%.1f", HashBenchmark.measureEdonkey(budget))} MiB/s");
+
+        // Any directory on a device selects its streams, prefer the given ones as they outlive the files
+        val directoryOfDevice = new HashMap<FileStore, Path>();
+        for (val path : paths) {
+            directoryOfDevice.putIfAbsent(Files.getFileStore(path), path.toAbsolutePath());
+        }
+        val streamsByDirectory = new LinkedHashMap<String, Integer>();
+        var bufferSize = 0;
+        for (val device : HashBenchmark.groupByDevice(files).entrySet()) {
+            val deviceFiles = device.getValue();
+            val read = HashBenchmark.measureRead(deviceFiles, budget);
+            if (!read.directIoUsed()) {
+                log.warning(STR."Direct I/O is not supported on \{device.getKey()}, the results are skewed by the page cache");
+            }
+            log.info(STR."\{device.getKey()}: sequential reads \{String.format("%.1f", read.getMibPerSecond())} MiB/s");
+
+            val trials = new ArrayList<HashBenchmark.Trial>();
+            for (val streams : TUNED_STREAMS) {
+                for (val size : TUNED_BUFFER_SIZES) {
+                    val trial = HashBenchmark.measureHashing(deviceFiles, streams, size, budget);
+                    log.info(STR."\{device.getKey()}: \{streams} streams with \{size / 1024} KiB buffers hash \{String.format("%.1f", trial.getMibPerSecond())} MiB/s");
+                    trials.add(trial);
+                }
+            }
+            val best = HashBenchmark.pick(trials);
+            log.info(STR."\{device.getKey()}: hashing fastest with \{best.streams()} streams and \{best.bufferSize() / 1024} KiB buffers");
+            val directory = directoryOfDevice.getOrDefault(device.getKey(), deviceFiles.getFirst().toAbsolutePath().getParent());
+            streamsByDirectory.put(directory.toString(), best.streams());
+            bufferSize = Math.max(bufferSize, best.bufferSize());
+        }
+        // Devices which were not measured are hashed as carefully as the slowest measured one
+        val defaultStreams = streamsByDirectory.values().stream().mapToInt(Integer::intValue).min().orElse(1);
+        log.info(STR."Tuned settings: hashStreamsPerDevice: \{defaultStreams}, hashBufferSizeKiB: \{bufferSize / 1024}, hashStreamsByDirectory: \{streamsByDirectory}");
+
+        if (configPath == null) {
+            return 0;
+        }
+        val parser = new ConfigFileParser<>(configPath, AniConfiguration.class);
+        val configuration = parser.loadFromFile(true);
+        if (configuration.isEmpty()) {
+            log.severe(STR."Could not load the configuration \{configPath}");
+            return 1;
+        }
+        val config = configuration.get();
+        config.setHashStreamsPerDevice(defaultStreams);
+        config.setHashBufferSizeKiB(bufferSize / 1024);
+        val merged = new LinkedHashMap<>(Objects.requireNonNullElse(config.getHashStreamsByDirectory(), Map.of()));
+        merged.putAll(streamsByDirectory);
+        config.setHashStreamsByDirectory(merged);
+        parser.saveToFile(config);
+        log.info(STR."Saved the tuned settings to \{configPath}");
+        return 0;
+    }
+
+    private static void log(HashBenchmark.Result result) {
+        val pageCacheGrowth = result.pageCacheGrowth().isPresent()
+                ? STR."\{result.pageCacheGrowth().getAsLong() / 1024 / 1024} MiB"
+                : "unknown";
+        log.info(STR."\{result.directIo() ? "Direct I/O" : "Normal reads"}: \{result.bytes() / 1024 / 1024} MiB in \{result.duration().toMillis()} ms, \{String.format("%.1f", result.getMibPerSecond())} MiB/s, page cache grew by \{pageCacheGrowth}");
+    }
+}
@@ -0,0 +1,67 @@
+package aniAdd.startup.commands;
+
+import aniAdd.startup.validation.validators.min.Min;
+import lombok.extern.java.Log;
+import lombok.val;
+import picocli.CommandLine;
+import processing.FileHandler;
+import processing.FileRenamer;
+import processing.LibraryReorganizer;
+import processing.cache.FileCache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+
+@Log
+@CommandLine.Command(
+        name = "reorganize",
+        mixinStandardHelpOptions = true,
+        version = "1.0",
+        description = "Moves all processed files to the location given by the current configuration, using the cached AniDB data")
+public class ReorganizeCommand implements Callable<Integer> {
+    @CommandLine.Option(names = {"-c", "--config"}, description = "The path to the config file. Specified parameters will override values from the config file.", required = true, scope = CommandLine.ScopeType.INHERIT)
+    String configPath;
+
+    @CommandLine.Option(names = {"--dry-run"}, description = "Only print the planned moves", required = false, defaultValue = "false")
+    boolean dryRun;
+
+    @CommandLine.Option(names = {"--threads"}, description = "Number of files moved at the same time", required = false, defaultValue = "4")
+    @Min(1) int threads;
+
+    @CommandLine.ParentCommand
+    private CliCommand parent;
+
+    @Override
+    public Integer call() throws Exception {
+        val configuration = parent.getConfiguration(false, configPath);
+        if (configuration.isEmpty()) {
+            log.severe(STR."No configuration loaded. Check the path to the config file. \{configPath}");
+            return 1;
+        }
+        val config = configuration.get();
+
+        try (val fileCache = FileCache.open(config.getCacheDirectory())) {
+            if (!fileCache.isPersistent()) {
+                log.severe("Reorganizing needs the data of processed files, configure a cache directory and scan the files first");
+                return 1;
+            }
+            val reorganizer = new LibraryReorganizer(config, fileCache, new FileRenamer(new FileHandler()));
+            val plan = reorganizer.plan();
+            log.info(STR."\{plan.getMoves().size()} files to move, \{plan.getUnchanged()} already in place, \{plan.getSkipped()} skipped, \{plan.getCollisions().size()} collisions");
+            plan.getCollisions().forEach(collision ->
+                    log.warning(STR."Not moving \{collision.move().source()} to \{collision.move().target()}: \{collision.reason()}"));
+            if (dryRun) {
+                plan.getMoves().forEach(move -> log.info(STR."\{move.source()} -> \{move.target()}"));
+                return 0;
+            }
+
+            try (val executorService = Executors.newFixedThreadPool(threads)) {
+                val result = reorganizer.execute(plan, executorService);
+                result.collisions().stream().skip(plan.getCollisions().size()).forEach(collision ->
+                        log.warning(STR."Not moving \{collision.move().source()} to \{collision.move().target()}: \{collision.reason()}"));
+                log.info(STR."Moved \{result.moved()} files, \{result.failed()} failed");
+                return result.failed() == 0 ? 0 : 1;
+            }
+        }
+    }
+}
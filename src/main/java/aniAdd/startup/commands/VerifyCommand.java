@@ -0,0 +1,72 @@
+package aniAdd.startup.commands;
+
+import aniAdd.startup.validation.validators.min.Min;
+import lombok.extern.java.Log;
+import lombok.val;
+import picocli.CommandLine;
+import processing.LibraryVerifier;
+import processing.cache.FileCache;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
+
+@Log
+@CommandLine.Command(
+        name = "verify",
+        mixinStandardHelpOptions = true,
+        version = "1.0",
+        description = "Hashes the next window of processed files again and reports the files and ed2k chunks which do not match the cached hashes anymore, i.e. because of bit rot")
+public class VerifyCommand implements Callable<Integer> {
+    @CommandLine.Option(names = {"-c", "--config"}, description = "The path to the config file. Specified parameters will override values from the config file.", required = true, scope = CommandLine.ScopeType.INHERIT)
+    String configPath;
+
+    @CommandLine.Option(names = {"--windows"}, description = "Number of windows the library is split into, every run verifies the next one. I.e. 30 for running it nightly to cover the library once a month", defaultValue = "30")
+    @Min(1) int windows;
+
+    @CommandLine.Option(names = {"--rate"}, description = "Maximum read rate in MiB/s, 0 for no limit", defaultValue = "50")
+    @Min(0) int rate;
+
+    @CommandLine.Option(names = {"--report"}, description = "File to write the report to, in addition to the log")
+    Path report;
+
+    @CommandLine.ParentCommand
+    private CliCommand parent;
+
+    @Override
+    public Integer call() throws Exception {
+        val configuration = parent.getConfiguration(false, configPath);
+        if (configuration.isEmpty()) {
+            log.severe(STR."No configuration loaded. Check the path to the config file. \{configPath}");
+            return 1;
+        }
+        val config = configuration.get();
+
+        try (val fileCache = FileCache.open(config.getCacheDirectory())) {
+            if (!fileCache.isPersistent()) {
+                log.severe("Verifying needs the hashes of processed files, configure a cache directory and scan the files first");
+                return 1;
+            }
+            val verifier = new LibraryVerifier(fileCache, Path.of(config.getCacheDirectory()), rate * 1024L * 1024L);
+            val result = verifier.verifyNextWindow(windows);
+
+            val lines = new ArrayList<String>();
+            lines.add(STR."Window \{result.window() + 1} of \{result.windows()}: verified \{result.verified()} files, \{result.findings().size()} problems");
+            for (val finding : result.findings()) {
+                val chunks = finding.corruptedChunks().isEmpty()
+                        ? ""
+                        : STR." at offsets \{finding.corruptedChunks().stream().map(String::valueOf).collect(Collectors.joining(", "))}";
+                lines.add(STR."\{finding.status()} \{finding.path()}\{chunks}");
+            }
+            lines.forEach(log::info);
+            if (report != null) {
+                Files.write(report, lines);
+            }
+            val corrupted = result.findings().stream()
+                    .anyMatch(finding -> finding.status() == LibraryVerifier.Status.CORRUPTED || finding.status() == LibraryVerifier.Status.UNREADABLE);
+            return corrupted ? 1 : 0;
+        }
+    }
+}
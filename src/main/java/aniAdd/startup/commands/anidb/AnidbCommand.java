@@ -7,13 +7,14 @@ import aniAdd.startup.commands.CliCommand;
 import aniAdd.startup.validation.validators.min.Min;
 import aniAdd.startup.validation.validators.nonempty.NonEmpty;
 import aniAdd.startup.validation.validators.port.Port;
-import fileprocessor.DeleteEmptyChildDirectoriesRecursively;
+import fileprocessor.DeleteEmptyParentDirectories;
 import fileprocessor.FileProcessor;
 import lombok.extern.java.Log;
 import lombok.val;
 import picocli.CommandLine;
 import processing.FileHandler;
 import processing.EpisodeProcessing;
+import processing.cache.FileCache;
 import udpapi.UdpApi;
 import udpapi.reply.ReplyStatus;
 
@@ -73,18 +74,18 @@ public class AnidbCommand {
         val config = configuration.get();
 
         val udpApi = getUdpApi(config, executorService);
-        val fileHandler = new FileHandler();
+        val deleteEmptyFolders = config.isRecursivelyDeleteEmptyFolders() && inputDirectory != null;
+        val fileHandler = new FileHandler(deleteEmptyFolders);
+        val fileCache = FileCache.open(config.getCacheDirectory());
 
-        val processing = new EpisodeProcessing(config, udpApi, executorService, fileHandler);
+        val processing = new EpisodeProcessing(config, udpApi, executorService, fileHandler, fileCache);
         val fileProcessor = new FileProcessor(processing, config, executorService);
 
-        if (config.isRecursivelyDeleteEmptyFolders() && inputDirectory != null) {
+        if (deleteEmptyFolders) {
             processing.addListener(event -> {
                 if (event == EpisodeProcessing.ProcessingEvent.Done) {
-                    executorService.execute(() -> {
-                        log.info("File moving done. Deleting empty directories.");
-                        executorService.execute(new DeleteEmptyChildDirectoriesRecursively(Paths.get(inputDirectory)));
-                    });
+                    log.info("File moving done. Deleting empty directories.");
+                    executorService.execute(new DeleteEmptyParentDirectories(Paths.get(inputDirectory), fileHandler.takeVacatedDirectories()));
                 }
             });
         }
@@ -92,6 +93,7 @@ public class AnidbCommand {
 
         val aniAdd = new AniAdd(configuration.get(), udpApi, terminateOnCompletion, fileProcessor, processing, _ -> {
             log.info("Shutdown complete");
+            fileCache.close();
             executorService.shutdownNow();
         });
         if (exitOnBan) {
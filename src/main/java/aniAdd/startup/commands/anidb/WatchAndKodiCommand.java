@@ -32,9 +32,12 @@ public class WatchAndKodiCommand implements Callable<Integer> {
     private String directory;
 
     @Min(value = 10, message = "Interval must be at least 10 minutes")
-    @CommandLine.Option(names = {"-i", "--interval"}, description = "The interval in minutes to scan the directory", defaultValue = "30")
+    @CommandLine.Option(names = {"-i", "--interval"}, description = "The interval in minutes to fully scan the directory. New files are picked up immediately unless --no-file-events is set, so this is only a safety net.", defaultValue = "30")
     private int interval;
 
+    @CommandLine.Option(names = {"--no-file-events"}, description = "Do not watch the directory for file system events, only scan periodically", defaultValue = "false")
+    private boolean noFileEvents;
+
     @CommandLine.ParentCommand
     private AnidbCommand parent;
 
@@ -54,6 +57,9 @@ public class WatchAndKodiCommand implements Callable<Integer> {
             val subscriber = new KodiNotificationSubscriber(new URI(STR."ws://\{kodiUrl}:\{port}/jsonrpc"), aniAdd, pathFilter);
             subscriber.connect();
             executorService.scheduleAtFixedRate(() -> aniAdd.ProcessDirectory(directory), 0, interval, TimeUnit.MINUTES);
+            if (!noFileEvents) {
+                aniAdd.WatchDirectory(directory);
+            }
 
             val _ = executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
         }
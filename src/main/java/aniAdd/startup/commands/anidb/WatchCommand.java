@@ -12,16 +12,19 @@ import java.util.concurrent.TimeUnit;
 
 @Log
 @CommandLine.Command(name = "watch", mixinStandardHelpOptions = true, version = "1.0",
-        description = "Periodically scans the directory for files and adds them to AniDb")
+        description = "Watches the directory for new files and adds them to AniDb")
 public class WatchCommand implements Callable<Integer> {
     @CommandLine.Parameters(index = "0", description = "The directory to scan.")
     @NonEmpty
     private String directory;
 
     @Min(value = 10, message = "Interval must be at least 10 minutes")
-    @CommandLine.Option(names = {"-i", "--interval"}, description = "The interval in minutes to scan the directory", defaultValue = "30")
+    @CommandLine.Option(names = {"-i", "--interval"}, description = "The interval in minutes to fully scan the directory. New files are picked up immediately unless --no-file-events is set, so this is only a safety net.", defaultValue = "30")
     private int interval;
 
+    @CommandLine.Option(names = {"--no-file-events"}, description = "Do not watch the directory for file system events, only scan periodically", defaultValue = "false")
+    private boolean noFileEvents;
+
     @CommandLine.ParentCommand
     private AnidbCommand parent;
 
@@ -38,6 +41,9 @@ public class WatchCommand implements Callable<Integer> {
             val aniAdd = aniAddO.get();
 
             executorService.scheduleAtFixedRate(() -> aniAdd.ProcessDirectory(directory), 0, interval, TimeUnit.MINUTES);
+            if (!noFileEvents) {
+                aniAdd.WatchDirectory(directory);
+            }
 
             val _ = executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
         }
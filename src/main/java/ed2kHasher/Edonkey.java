@@ -34,8 +34,9 @@ public class Edonkey extends AbstractChecksum {
 	private final static String AUX_ALGORITHM = "md4";
 	private IMessageDigest md4 = null;
 	private IMessageDigest md4final = null;
-	private final static int BLOCKSIZE = 9728000; // 9500 * 1024;
+	public final static int BLOCKSIZE = 9728000; // 9500 * 1024;
 	private final byte[] edonkeyHash = new byte[16]; // 16 bytes, 128 bits
+	private final StringBuilder chunkHashes = new StringBuilder(); // md4 of every complete block, 32 hex digits each
 
 	public Edonkey() throws NoSuchAlgorithmException {
 		md4 = new MD4();//HashFactory.getInstance(AUX_ALGORITHM);
@@ -46,6 +47,7 @@ public class Edonkey extends AbstractChecksum {
 	public void reset() {
 		md4.reset();
 		md4final.reset();
+		chunkHashes.setLength(0);
 		length=0;
 	}
     @Override
@@ -56,6 +58,7 @@ public class Edonkey extends AbstractChecksum {
 		if ((length % BLOCKSIZE) == 0) {
 			System.arraycopy(md4.digest(), 0, edonkeyHash, 0, 16);
 			md4final.update(edonkeyHash,0,16);
+			chunkHashes.append(format(edonkeyHash, false));
 
 			md4.reset();
 		}
@@ -77,6 +80,7 @@ public class Edonkey extends AbstractChecksum {
 			length+=len;
 			System.arraycopy(md4.digest(), 0, edonkeyHash, 0, 16);
 			md4final.update(edonkeyHash,0,16);
+			chunkHashes.append(format(edonkeyHash, false));
 
 			md4.reset();
 		} else
@@ -87,6 +91,7 @@ public class Edonkey extends AbstractChecksum {
 
 			System.arraycopy(md4.digest(), 0, edonkeyHash, 0, 16);
 			md4final.update(edonkeyHash,0,16);
+			chunkHashes.append(format(edonkeyHash, false));
 
 			md4.reset();    
 
@@ -94,6 +99,18 @@ public class Edonkey extends AbstractChecksum {
 			length+=zuSchreiben-platz;
 		}
 	}
+	/**
+	 * The md4 of every block of the data, including the incomplete last one. Has to be called before
+	 * {@link #getHexValue()}, which resets the md4 of the last block.
+	 *
+	 * @return 32 lowercase hex digits per block
+	 */
+	public String getChunkHashes() {
+		if (length % BLOCKSIZE == 0 && length > 0)
+			return chunkHashes.toString();
+		IMessageDigest md4temp = (IMessageDigest)md4.clone();
+		return chunkHashes + format(md4temp.digest(), false);
+	}
     @Override
 	public String getHexValue() {
 		if (length < BLOCKSIZE)
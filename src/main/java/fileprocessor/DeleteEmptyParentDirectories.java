@@ -0,0 +1,54 @@
+package fileprocessor;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.java.Log;
+import lombok.val;
+
+import java.io.IOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.TreeSet;
+
+/**
+ * Deletes the directories files were moved out of if they are empty now, and their parents which became empty
+ * by that, up to but excluding the root. Directories outside the root are left alone.
+ */
+@Log
+@RequiredArgsConstructor
+public class DeleteEmptyParentDirectories implements Runnable {
+    private final Path root;
+    private final Collection<Path> directories;
+
+    @Override
+    public void run() {
+        val absoluteRoot = root.toAbsolutePath().normalize();
+        // Deepest first, so a parent is only tried once all of its candidate children are gone
+        val pending = new TreeSet<>(Comparator.<Path>comparingInt(Path::getNameCount).reversed().thenComparing(Comparator.naturalOrder()));
+        directories.forEach(directory -> pending.add(directory.toAbsolutePath().normalize()));
+
+        Path directory;
+        while ((directory = pending.pollFirst()) != null) {
+            if (directory.startsWith(absoluteRoot) && !directory.equals(absoluteRoot) && delete(directory)) {
+                pending.add(directory.getParent());
+            }
+        }
+    }
+
+    private static boolean delete(Path directory) {
+        try {
+            // Fails for directories which are not empty, no need to list them
+            Files.delete(directory);
+            log.info(STR."Deleted empty directory: \{directory}");
+            return true;
+        } catch (DirectoryNotEmptyException | NoSuchFileException e) {
+            return false;
+        } catch (IOException e) {
+            log.warning(STR."Could not delete directory \{directory}: \{e.getMessage()}");
+            return false;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package fileprocessor;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import lombok.extern.java.Log;
+import lombok.val;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Remembers the modification time and the subdirectories of every listed directory.
+ * Adding, removing or renaming an entry changes the modification time of a directory, so a directory with an
+ * unchanged modification time does not need to be listed again, only its subdirectories need to be checked.
+ * Files of unchanged directories are not reported again, so a listing is only remembered once all of its files
+ * were settled and processed, see {@link #settle}, and every directory is listed again after {@link #MAX_AGE}.
+ */
+@Log
+public class DirectorySnapshot {
+    private static final String FILE_NAME = "directories.json";
+    private static final Duration MAX_AGE = Duration.ofHours(24);
+    // Modification times are not precise on every file system, changes within this time of a listing could be missed
+    private static final long TIMESTAMP_GRANULARITY_MS = 2000;
+
+    private final Gson gson = new Gson();
+    private final Map<String, Listing> listings = new ConcurrentHashMap<>();
+    // Listings whose files are still being processed, by directory
+    private final Map<String, StagedListing> staged = new ConcurrentHashMap<>();
+    @Nullable private final Path storePath;
+    private final Duration settlePeriod;
+
+    private DirectorySnapshot(@Nullable Path storePath, Duration settlePeriod) {
+        this.storePath = storePath;
+        this.settlePeriod = settlePeriod;
+    }
+
+    /**
+     * @param settlePeriod directories containing files modified within this period before the listing are not remembered
+     */
+    public static DirectorySnapshot load(@Nullable String cacheDirectory, Duration settlePeriod) {
+        if (cacheDirectory == null || cacheDirectory.isBlank()) {
+            return new DirectorySnapshot(null, settlePeriod);
+        }
+        val snapshot = new DirectorySnapshot(Paths.get(cacheDirectory, FILE_NAME), settlePeriod);
+        if (Files.exists(snapshot.storePath)) {
+            try {
+                Map<String, Listing> listings = snapshot.gson.fromJson(Files.readString(snapshot.storePath, StandardCharsets.UTF_8),
+                        new TypeToken<Map<String, Listing>>() {}.getType());
+                if (listings != null) {
+                    snapshot.listings.putAll(listings);
+                }
+                log.fine(STR."Loaded \{snapshot.listings.size()} directory listings from \{snapshot.storePath}");
+            } catch (IOException | RuntimeException e) {
+                log.warning(STR."Could not load directory snapshot \{snapshot.storePath}, all directories will be listed: \{e.getMessage()}");
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return the names of the subdirectories if the directory did not change since it was listed, else null
+     */
+    @Nullable
+    public List<String> getUnchangedSubdirectories(Path directory, BasicFileAttributes attributes) {
+        val listing = listings.get(directory.toString());
+        if (listing == null) {
+            return null;
+        }
+        val lastModified = attributes.lastModifiedTime().toMillis();
+        val isUnchanged = listing.lastModified() == lastModified
+                && lastModified < listing.listedAt() - TIMESTAMP_GRANULARITY_MS
+                && System.currentTimeMillis() - listing.listedAt() < MAX_AGE.toMillis();
+        return isUnchanged ? listing.subdirectories() : null;
+    }
+
+    /**
+     * Stages the listing of a directory, it is used once {@link #settle} finds all of its files processed
+     *
+     * @param files the files found in the directory which are processed
+     */
+    public void put(Path directory, BasicFileAttributes attributes, long listedAt, long newestFileModified, List<String> subdirectories,
+                    List<File> files) {
+        listings.remove(directory.toString());
+        if (newestFileModified > listedAt - Math.max(settlePeriod.toMillis(), TIMESTAMP_GRANULARITY_MS)) {
+            staged.remove(directory.toString());
+            return;
+        }
+        staged.put(directory.toString(), new StagedListing(new Listing(attributes.lastModifiedTime().toMillis(), listedAt, subdirectories),
+                files.stream().map(File::getPath).toList()));
+    }
+
+    /**
+     * Remembers the staged listings whose files are all processed and saves the snapshot.
+     * The other listings stay staged until the directory is listed again.
+     */
+    public void settle(Predicate<File> isProcessed) {
+        val iterator = staged.entrySet().iterator();
+        while (iterator.hasNext()) {
+            val entry = iterator.next();
+            if (entry.getValue().files().stream().map(File::new).allMatch(isProcessed)) {
+                listings.put(entry.getKey(), entry.getValue().listing());
+                iterator.remove();
+            }
+        }
+        save();
+    }
+
+    public int size() {
+        return listings.size();
+    }
+
+    private void save() {
+        if (storePath == null) {
+            return;
+        }
+        // Listings which are too old to be used anymore belong to directories which do not exist anymore
+        val now = System.currentTimeMillis();
+        listings.values().removeIf(listing -> now - listing.listedAt() >= MAX_AGE.toMillis());
+        val tempPath = storePath.resolveSibling(STR."\{FILE_NAME}.tmp");
+        try {
+            Files.createDirectories(storePath.getParent());
+            Files.writeString(tempPath, gson.toJson(new HashMap<>(listings)), StandardCharsets.UTF_8);
+            Files.move(tempPath, storePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warning(STR."Could not save directory snapshot \{storePath}: \{e.getMessage()}");
+        }
+    }
+
+    private record Listing(long lastModified, long listedAt, List<String> subdirectories) {
+    }
+
+    private record StagedListing(Listing listing, List<String> files) {
+    }
+}
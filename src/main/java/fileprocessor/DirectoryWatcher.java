@@ -0,0 +1,123 @@
+package fileprocessor;
+
+import aniAdd.misc.ICallBack;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.java.Log;
+import lombok.val;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches a directory tree for new files using the file system events ({@link WatchService}).
+ * Subdirectories are registered as they are created. If events were lost (overflow) or a new directory
+ * appears, only that directory is rescanned.
+ * Found files are reported in batches, to avoid starting the processing for every single event.
+ * Only created (or moved in) files are reported, files which keep growing are followed by the
+ * {@link WriteCompletionGate}, and changes to processed files, i.e. of their attributes, are of no interest.
+ */
+@Log
+@RequiredArgsConstructor
+public class DirectoryWatcher implements Runnable {
+    private static final long BATCH_DELAY_MS = 2000;
+
+    private final Path root;
+    private final ICallBack<Collection<File>> onFilesFound;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    private final Set<File> pendingFiles = new LinkedHashSet<>();
+
+    @Override
+    public void run() {
+        try (val watchService = root.getFileSystem().newWatchService()) {
+            registerRecursively(watchService, root);
+            log.info(STR."Watching \{directories.size()} directories in \{root} for new files");
+            while (!Thread.currentThread().isInterrupted() && !directories.isEmpty()) {
+                val key = pendingFiles.isEmpty() ? watchService.take() : watchService.poll(BATCH_DELAY_MS, TimeUnit.MILLISECONDS);
+                if (key == null) {
+                    flush();
+                    continue;
+                }
+                handleEvents(watchService, key);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            log.fine(STR."Stopped watching \{root}");
+        } catch (IOException e) {
+            log.severe(STR."Could not watch \{root}: \{e.getMessage()}");
+        }
+    }
+
+    private void handleEvents(WatchService watchService, WatchKey key) {
+        val directory = directories.get(key);
+        for (val event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                log.warning(STR."Missed file events in \{directory != null ? directory : root}, rescanning it");
+                rescan(watchService, directory != null ? directory : root);
+                continue;
+            }
+            if (directory == null) {
+                continue;
+            }
+            val path = directory.resolve((Path) event.context());
+            if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                if (event.kind() == ENTRY_CREATE) {
+                    // Files may have been created before we registered the directory
+                    rescan(watchService, path);
+                }
+            } else {
+                val file = path.toFile();
+                if (FindFiles.shouldScrapeFile(file)) {
+                    pendingFiles.add(file);
+                }
+            }
+        }
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+    }
+
+    private void rescan(WatchService watchService, Path directory) {
+        registerRecursively(watchService, directory);
+        try {
+            pendingFiles.addAll(new FindFiles(directory.toString()).call());
+        } catch (Exception e) {
+            log.warning(STR."Could not rescan \{directory}: \{e.getMessage()}");
+        }
+    }
+
+    private void flush() {
+        if (pendingFiles.isEmpty()) {
+            return;
+        }
+        val files = List.copyOf(pendingFiles);
+        pendingFiles.clear();
+        log.fine(STR."Found \{files.size()} new files in \{root}");
+        onFilesFound.invoke(files);
+    }
+
+    private void registerRecursively(WatchService watchService, Path start) {
+        try {
+            Files.walkFileTree(start, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    val key = dir.register(watchService, ENTRY_CREATE);
+                    directories.put(key, dir);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    log.warning(STR."Could not watch \{file}: \{exc.getMessage()}");
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            log.warning(STR."Could not watch \{start}: \{e.getMessage()}");
+        }
+    }
+}
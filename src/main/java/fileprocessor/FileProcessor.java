@@ -6,20 +6,33 @@ import lombok.*;
 import lombok.extern.java.Log;
 
 import java.io.File;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Log
-@RequiredArgsConstructor
 public class FileProcessor {
     private final Processor processor;
     private final AniConfiguration configuration;
     private final List<ICallBack<EventType>> onEvents = new ArrayList<>();
 
-    private final ExecutorService executorService;
+    private final ScheduledExecutorService executorService;
+    private final WriteCompletionGate writeCompletionGate;
+    private final DirectorySnapshot directorySnapshot;
+
+    public FileProcessor(Processor processor, AniConfiguration configuration, ScheduledExecutorService executorService) {
+        this.processor = processor;
+        this.configuration = configuration;
+        this.executorService = executorService;
+        val quietPeriod = Duration.ofSeconds(configuration.getWriteQuietPeriodSeconds());
+        this.writeCompletionGate = new WriteCompletionGate(executorService, quietPeriod, this::processCompleteFiles, processor::fileChanged);
+        this.directorySnapshot = DirectorySnapshot.load(configuration.getCacheDirectory(), quietPeriod);
+    }
 
     public void AddFile(String path) {
         AddFile(path, configuration);
@@ -38,17 +51,42 @@ public class FileProcessor {
     }
 
 
+    public void AddFiles(Collection<File> files) {
+        if (files.isEmpty()) {
+            return;
+        }
+        sendEvent(FileProcessor.EventType.Processing);
+        writeCompletionGate.submit(files);
+    }
+
+    public void Watch(String directory) {
+        // Waiting for events blocks, so the watcher gets a thread of its own instead of one of the shared pool
+        Thread.ofPlatform()
+                .name(STR."watch-\{directory}")
+                .daemon()
+                .start(new DirectoryWatcher(Paths.get(directory), this::AddFiles));
+    }
+
     public void Scan(String directory) {
-        val findFiles = executorService.submit(new FindFiles(directory));
+        // Directories listed by the previous scan whose files are processed by now are skipped from now on
+        directorySnapshot.settle(processor::isProcessed);
+        // Files are handed to the processing as they are found, so hashing can start before the scan is done.
+        // Processing is not done before the scan is and every file held back by the gate was released or vanished.
+        val hasFiles = new AtomicBoolean();
+        ICallBack<Collection<File>> onFilesFound = files -> {
+            if (!hasFiles.getAndSet(true)) {
+                processor.inputPending();
+            }
+            writeCompletionGate.submit(files);
+        };
+        val findFiles = executorService.submit(new FindFiles(directory, onFilesFound, directorySnapshot));
         try {
             val files = findFiles.get();
             if (files.isEmpty()) {
-                log.warning("No files found");
+                log.warning("No new files found");
                 sendEvent(FileProcessor.EventType.NothingToProcess);
             } else {
                 sendEvent(FileProcessor.EventType.Processing);
-                processor.addFiles(files);
-                processor.start();
             }
         } catch (InterruptedException e) {
             log.severe(STR."Find Files was interrupted \{e.getMessage()}");
@@ -57,9 +95,25 @@ public class FileProcessor {
             log.severe(STR."Find Files was cancelled \{e.getCause().getMessage()}");
             sendEvent(FileProcessor.EventType.ErrorFindingFiles);
             throw new RuntimeException(e);
+        } finally {
+            if (hasFiles.get()) {
+                writeCompletionGate.whenDrained(processor::inputComplete);
+            }
         }
     }
 
+    /**
+     * Remembers the directories whose files were processed, call once the processing is terminated
+     */
+    public void Terminate() {
+        directorySnapshot.settle(processor::isProcessed);
+    }
+
+    private void processCompleteFiles(Collection<File> files) {
+        processor.addFiles(files);
+        processor.start();
+    }
+
     private void sendEvent(EventType eventType) {
         onEvents.forEach(cb -> cb.invoke(eventType));
     }
@@ -73,6 +127,23 @@ public class FileProcessor {
 
         void addFiles(Collection<File> newFiles, AniConfiguration configuration);
 
+        /**
+         * A file which is not completely written yet has grown or vanished
+         */
+        void fileChanged(File file);
+
+        /**
+         * More files are about to be added, processing must not report it is done before {@link #inputComplete()}
+         */
+        void inputPending();
+
+        void inputComplete();
+
+        /**
+         * @return true if the file was processed successfully, it is not reported again while its directory does not change
+         */
+        boolean isProcessed(File file);
+
         void start();
     }
 }
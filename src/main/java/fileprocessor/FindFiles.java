@@ -1,49 +1,77 @@
 package fileprocessor;
 
-import lombok.RequiredArgsConstructor;
+import aniAdd.misc.ICallBack;
 import lombok.extern.java.Log;
 import lombok.val;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
-import java.util.Arrays;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.Callable;
-import java.util.logging.Logger;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Finds all files to process in a directory tree.
+ * Subdirectories are listed in parallel and the files of each directory are reported as soon as it has been
+ * listed, so processing can start before the whole tree has been walked.
+ * With a {@link DirectorySnapshot} directories which did not change since the last scan are not listed again.
+ */
 @Log
-@RequiredArgsConstructor
 public class FindFiles implements Callable<List<File>> {
+    private static final int PARALLELISM = 8;
 
     private final String directory;
+    private final ICallBack<Collection<File>> onFilesFound;
+    @Nullable private final DirectorySnapshot snapshot;
+
+    public FindFiles(String directory) {
+        this(directory, _ -> {}, null);
+    }
+
+    public FindFiles(String directory, ICallBack<Collection<File>> onFilesFound, @Nullable DirectorySnapshot snapshot) {
+        this.directory = directory;
+        this.onFilesFound = onFilesFound;
+        this.snapshot = snapshot;
+    }
 
     @Override
     public List<File> call() throws Exception {
-        File folder = new File(directory);
+        val folder = Paths.get(directory).toAbsolutePath();
 
-        log.fine(STR."Folder: \{folder.getAbsolutePath()}");
+        log.fine(STR."Folder: \{folder}");
+        if (!Files.isDirectory(folder)) {
+            return List.of();
+        }
 
-        val files = recursivelyGetFilesToScrape(folder).collect(Collectors.toList());
-        files.forEach(f -> log.finest(STR."Found file: \{f.getAbsolutePath()}"));
+        val found = new ConcurrentLinkedQueue<File>();
+        val unchangedDirectories = new LongAdder();
+        val pool = new ForkJoinPool(PARALLELISM);
+        try {
+            pool.invoke(new ListDirectory(folder, ListDirectory.readAttributes(folder), found, unchangedDirectories));
+        } finally {
+            pool.shutdown();
+        }
+        if (snapshot != null) {
+            log.info(STR."Skipped listing \{unchangedDirectories.sum()} unchanged directories");
+        }
+        val files = new ArrayList<>(found);
         log.info(STR."Number of found files: \{files.size()}");
         return files;
     }
 
-    private Stream<File> recursivelyGetFilesToScrape(File folder) {
-        if (!folder.exists() || !folder.isDirectory()) {
-            return Arrays.stream(new File[0]);
-        }
-        val files = Arrays.stream(folder.listFiles(this::shouldScrapeFile));
-        val subFolderFiles = Arrays.stream(folder.listFiles(File::isDirectory)).flatMap(this::recursivelyGetFilesToScrape);
-        return Stream.concat(files, subFolderFiles);
-    }
-
-    private boolean shouldScrapeFile(File file) {
-        return !file.isDirectory() && !isKodiMetadataFileOrInvalidFile(file.getName());
+    static boolean shouldScrapeFile(File file) {
+        return !file.isDirectory() && !isKodiMetadataFileOrInvalidFile(file.getName()) && !WriteCompletionGate.isTemporaryFile(file);
     }
 
-    private boolean isKodiMetadataFileOrInvalidFile(String name) {
+    private static boolean isKodiMetadataFileOrInvalidFile(String name) {
         return name.endsWith(".jpg")
                 || name.endsWith(".nfo")
                 || name.endsWith(".srt")
@@ -52,4 +80,82 @@ public class FindFiles implements Callable<List<File>> {
                 || name.equalsIgnoreCase("thumbs.db");
     }
 
+    private class ListDirectory extends RecursiveAction {
+        private final Path folder;
+        @Nullable private final BasicFileAttributes folderAttributes;
+        private final Collection<File> found;
+        private final LongAdder unchangedDirectories;
+
+        private ListDirectory(Path folder, @Nullable BasicFileAttributes folderAttributes, Collection<File> found, LongAdder unchangedDirectories) {
+            this.folder = folder;
+            this.folderAttributes = folderAttributes;
+            this.found = found;
+            this.unchangedDirectories = unchangedDirectories;
+        }
+
+        @Override
+        protected void compute() {
+            if (snapshot != null && folderAttributes != null) {
+                val subdirectories = snapshot.getUnchangedSubdirectories(folder, folderAttributes);
+                if (subdirectories != null) {
+                    // Changes below a subdirectory do not change the modification time of this directory
+                    unchangedDirectories.increment();
+                    invokeAll(subdirectories.stream()
+                            .map(folder::resolve)
+                            .map(subFolder -> new ListDirectory(subFolder, readAttributes(subFolder), found, unchangedDirectories))
+                            .filter(task -> task.folderAttributes != null && task.folderAttributes.isDirectory())
+                            .toList());
+                    return;
+                }
+            }
+
+            val listedAt = System.currentTimeMillis();
+            var newestFileModified = 0L;
+            var isComplete = true;
+            val files = new ArrayList<File>();
+            val subFolders = new ArrayList<ListDirectory>();
+            try (val entries = Files.newDirectoryStream(folder)) {
+                for (val entry : entries) {
+                    val attributes = readAttributes(entry);
+                    if (attributes == null) {
+                        isComplete = false;
+                        continue;
+                    }
+                    if (attributes.isDirectory()) {
+                        subFolders.add(new ListDirectory(entry, attributes, found, unchangedDirectories));
+                    } else if (attributes.isRegularFile()) {
+                        newestFileModified = Math.max(newestFileModified, attributes.lastModifiedTime().toMillis());
+                        val file = entry.toFile();
+                        if (!isKodiMetadataFileOrInvalidFile(file.getName()) && !WriteCompletionGate.isTemporaryFile(file)) {
+                            log.finest(STR."Found file: \{file.getAbsolutePath()}");
+                            files.add(file);
+                        }
+                    }
+                }
+            } catch (IOException | DirectoryIteratorException e) {
+                log.warning(STR."Could not list directory \{folder}: \{e.getMessage()}");
+                isComplete = false;
+            }
+
+            if (snapshot != null && folderAttributes != null && isComplete) {
+                snapshot.put(folder, folderAttributes, listedAt, newestFileModified,
+                        subFolders.stream().map(subFolder -> subFolder.folder.getFileName().toString()).toList(), files);
+            }
+            if (!files.isEmpty()) {
+                found.addAll(files);
+                onFilesFound.invoke(files);
+            }
+            invokeAll(subFolders);
+        }
+
+        @Nullable
+        private static BasicFileAttributes readAttributes(Path entry) {
+            try {
+                return Files.readAttributes(entry, BasicFileAttributes.class);
+            } catch (IOException e) {
+                log.fine(STR."Could not read attributes of \{entry}: \{e.getMessage()}");
+                return null;
+            }
+        }
+    }
 }
@@ -0,0 +1,183 @@
+package fileprocessor;
+
+import aniAdd.misc.ICallBack;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.java.Log;
+import lombok.val;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Holds back files which are still being written (i.e. downloads) until neither their size nor their
+ * modification date changed for the configured quiet period.
+ * Files which have not been modified for at least the quiet period when they are found are passed on immediately.
+ * Files which disappear while waiting are dropped, they no longer hold back {@link #whenDrained}.
+ */
+@Log
+@RequiredArgsConstructor
+public class WriteCompletionGate {
+    private static final List<String> TEMPORARY_SUFFIXES = List.of(".part", ".!qb", ".!ut", ".crdownload", ".partial", ".download", ".tmp");
+    // Control file aria2 keeps next to the file while it is downloading
+    private static final String ARIA2_CONTROL_SUFFIX = ".aria2";
+
+    private final ScheduledExecutorService executorService;
+    private final Duration quietPeriod;
+    private final ICallBack<Collection<File>> onFilesComplete;
+    private final ICallBack<File> onFileChanged;
+    private final Map<File, Observation> pending = new ConcurrentHashMap<>();
+    private boolean isCheckScheduled;
+    private final List<Runnable> onDrained = new ArrayList<>();
+
+    public static boolean isTemporaryFile(File file) {
+        val name = file.getName().toLowerCase();
+        return TEMPORARY_SUFFIXES.stream().anyMatch(name::endsWith);
+    }
+
+    public void submit(Collection<File> files) {
+        val now = System.currentTimeMillis();
+        val complete = new ArrayList<File>();
+        // Every directory is listed once, instead of looking up each possible control file of every file
+        val listings = new HashMap<File, Set<String>>();
+        for (val file : files) {
+            if (isTemporaryFile(file) || pending.containsKey(file)) {
+                continue;
+            }
+            val observation = observe(file, now);
+            if (observation == null) {
+                continue;
+            }
+            if (now - observation.lastModified() >= quietPeriod.toMillis()
+                    && !isBeingDownloaded(file, listings.computeIfAbsent(file.getAbsoluteFile().getParentFile(), WriteCompletionGate::listNames))) {
+                complete.add(file);
+            } else {
+                log.fine(STR."File \{file.getAbsolutePath()} was modified recently, waiting until it is completely written");
+                pending.put(file, observation);
+            }
+        }
+        release(complete);
+        scheduleCheck();
+    }
+
+    private void check() {
+        synchronized (this) {
+            isCheckScheduled = false;
+        }
+        val now = System.currentTimeMillis();
+        val complete = new ArrayList<File>();
+        val listings = new HashMap<File, Set<String>>();
+        for (val entry : pending.entrySet()) {
+            val file = entry.getKey();
+            val previous = entry.getValue();
+            val current = observe(file, previous.stableSince());
+            if (current == null) {
+                log.fine(STR."File \{file.getAbsolutePath()} disappeared while waiting for it to be completely written");
+                pending.remove(file);
+                onFileChanged.invoke(file);
+            } else if (!current.isSameAs(previous)
+                    || isBeingDownloaded(file, listings.computeIfAbsent(file.getAbsoluteFile().getParentFile(), WriteCompletionGate::listNames))) {
+                pending.put(file, new Observation(current.size(), current.lastModified(), now));
+                if (current.size() != previous.size()) {
+                    onFileChanged.invoke(file);
+                }
+            } else if (now - previous.stableSince() >= quietPeriod.toMillis()) {
+                pending.remove(file);
+                complete.add(file);
+            }
+        }
+        release(complete);
+        notifyIfDrained();
+        scheduleCheck();
+    }
+
+    /**
+     * Runs the action once no file is held back anymore, immediately if none is
+     */
+    public void whenDrained(Runnable action) {
+        synchronized (this) {
+            if (!pending.isEmpty()) {
+                onDrained.add(action);
+                return;
+            }
+        }
+        action.run();
+    }
+
+    private void notifyIfDrained() {
+        List<Runnable> actions;
+        synchronized (this) {
+            if (!pending.isEmpty() || onDrained.isEmpty()) {
+                return;
+            }
+            actions = new ArrayList<>(onDrained);
+            onDrained.clear();
+        }
+        actions.forEach(Runnable::run);
+    }
+
+    private synchronized void scheduleCheck() {
+        if (isCheckScheduled || pending.isEmpty()) {
+            return;
+        }
+        isCheckScheduled = true;
+        executorService.schedule(this::check, Math.max(1, quietPeriod.toMillis() / 2), TimeUnit.MILLISECONDS);
+    }
+
+    private void release(List<File> files) {
+        if (!files.isEmpty()) {
+            onFilesComplete.invoke(files);
+        }
+    }
+
+    /**
+     * @return true if a download client keeps a control or temporary file next to the file
+     */
+    public static boolean isBeingDownloaded(File file) {
+        return controlFileSuffixes().anyMatch(suffix -> new File(file.getPath() + suffix).exists());
+    }
+
+    /**
+     * @param siblings the names of all files in the directory of the file
+     * @return true if a download client keeps a control or temporary file next to the file
+     */
+    private static boolean isBeingDownloaded(File file, Set<String> siblings) {
+        val name = file.getName();
+        return controlFileSuffixes().anyMatch(suffix -> siblings.contains(name + suffix));
+    }
+
+    private static Stream<String> controlFileSuffixes() {
+        return Stream.concat(Stream.of(ARIA2_CONTROL_SUFFIX), TEMPORARY_SUFFIXES.stream());
+    }
+
+    private static Set<String> listNames(File directory) {
+        val names = directory == null ? null : directory.list();
+        return names == null ? Set.of() : new HashSet<>(Arrays.asList(names));
+    }
+
+    private static Observation observe(File file, long stableSince) {
+        val lastModified = file.lastModified();
+        if (lastModified == 0L) {
+            // File does not exist (anymore)
+            return null;
+        }
+        return new Observation(file.length(), lastModified, stableSince);
+    }
+
+    private record Observation(long size, long lastModified, long stableSince) {
+        boolean isSameAs(Observation other) {
+            return size == other.size && lastModified == other.lastModified;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package processing;
+
+import lombok.Synchronized;
+import lombok.extern.java.Log;
+import lombok.val;
+import org.jetbrains.annotations.Nullable;
+import processing.cache.CachedFile;
+import processing.cache.FileCache;
+import processing.tagsystem.TagSystemTags;
+import udpapi.UdpApi;
+import udpapi.command.Command;
+import udpapi.command.FileCommand;
+import udpapi.query.Query;
+import udpapi.reply.ReplyStatus;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * Queries AniDB again for files in the {@link FileCache} in the command slots which are left unused before the
+ * automatic logout. Files of recently aired episodes are refreshed weekly, as their titles and group data are
+ * often completed after release, all others only every few months. The most overdue files are refreshed first.
+ * Uses negative tags, so the replies are not mistaken for files being processed.
+ */
+@Log
+public class CacheRefresher implements UdpApi.IdleCommandSource {
+    private static final Duration SCAN_INTERVAL = Duration.ofMinutes(10);
+    private static final Duration RECENTLY_AIRED = Duration.ofDays(60);
+    private static final Duration RECENTLY_AIRED_INTERVAL = Duration.ofDays(7);
+    private static final Duration DEFAULT_INTERVAL = Duration.ofDays(90);
+
+    private final FileCache fileCache;
+    private final Map<Integer, CachedFile> pending = new HashMap<>();
+    private final Queue<CachedFile> due = new ArrayDeque<>();
+    private long lastScan = 0;
+    private int nextTag = -1;
+
+    public CacheRefresher(UdpApi api, FileCache fileCache) {
+        this.fileCache = fileCache;
+        api.registerCallback(FileCommand.class, this::onReply);
+    }
+
+    @Override
+    @Nullable
+    @Synchronized
+    public Command nextIdleCommand() {
+        val now = System.currentTimeMillis();
+        if (due.isEmpty() && now - lastScan >= SCAN_INTERVAL.toMillis()) {
+            lastScan = now;
+            due.addAll(findDue(fileCache.getFiles(), now));
+            if (!due.isEmpty()) {
+                log.info(STR."Refreshing \{due.size()} cached files while idle");
+            }
+        }
+        CachedFile file;
+        while ((file = due.poll()) != null) {
+            if (isUnchanged(file)) {
+                val tag = nextTag--;
+                pending.put(tag, file);
+                return FileCommand.Create(tag, file.size(), file.ed2k());
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void idleCommandDropped(Command command) {
+        // Found due again with the next scan
+        takePending(command.getTag());
+    }
+
+    @Synchronized
+    private CachedFile takePending(Integer tag) {
+        return pending.remove(tag);
+    }
+
+    /**
+     * @return the files which are due for a refresh, the most overdue first
+     */
+    static List<CachedFile> findDue(Collection<CachedFile> files, long now) {
+        return files.stream()
+                .filter(file -> overdue(file, now) >= 1)
+                .sorted(Comparator.comparingDouble((CachedFile file) -> overdue(file, now)).reversed())
+                .toList();
+    }
+
+    /**
+     * @return the age of the data in multiples of its refresh interval
+     */
+    private static double overdue(CachedFile file, long now) {
+        if (file.refreshedAt() <= 0) {
+            return Double.MAX_VALUE;
+        }
+        val recentlyAired = file.airedAt() > 0 && file.refreshedAt() - file.airedAt() < RECENTLY_AIRED.toMillis();
+        val interval = recentlyAired ? RECENTLY_AIRED_INTERVAL : DEFAULT_INTERVAL;
+        return (double) (now - file.refreshedAt()) / interval.toMillis();
+    }
+
+    private void onReply(Query<FileCommand> query) {
+        val tag = query.getTag();
+        if (tag == null || tag >= 0) {
+            return;
+        }
+        val file = takePending(tag);
+        if (file == null || !isUnchanged(file)) {
+            return;
+        }
+        val cachedTags = fileCache.readTags(file);
+        if (cachedTags.isEmpty()) {
+            return;
+        }
+        val tags = new EnumMap<TagSystemTags, String>(TagSystemTags.class);
+        tags.putAll(cachedTags.get());
+        val replyStatus = query.getReply().getReplyStatus();
+        if (replyStatus == ReplyStatus.NO_SUCH_FILE
+                || replyStatus == ReplyStatus.ILLEGAL_INPUT_OR_ACCESS_DENIED
+                || replyStatus == ReplyStatus.MULTIPLE_FILES_FOUND) {
+            // Keeps the data, but does not ask again before the next interval
+            log.warning(STR."Could not refresh \{file.path()}: \{replyStatus}");
+        } else {
+            query.getCommand().AddReplyToDict(tags, query.getReply(), null);
+            log.fine(STR."Refreshed \{file.path()}");
+        }
+        fileCache.put(Path.of(file.path()), tags, fileCache.readChunkHashes(file).orElse(null), System.currentTimeMillis());
+    }
+
+    /**
+     * @return true if the file is still where it was cached and was neither changed nor processed again since
+     */
+    private boolean isUnchanged(CachedFile file) {
+        val path = Path.of(file.path());
+        if (!fileCache.get(path).map(cached -> cached.offset() == file.offset()).orElse(false)) {
+            return false;
+        }
+        try {
+            val attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return file.matches(attributes.size(), attributes.lastModifiedTime().toMillis());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package processing;
+
+import ed2kHasher.Edonkey;
+import lombok.extern.java.Log;
+import lombok.val;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Moves files between file systems, where they can not simply be renamed.
+ * The data is copied by the kernel in large ranges into a .part file next to the target, which is synced and
+ * verified against the ed2k hash before it gets its final name and the source is deleted. A .part file left over
+ * by an interrupted move is continued, if the result does not match it is copied again from the start.
+ * Permissions, owner where permitted and extended user attributes are copied as well. A file which takes the
+ * target while copying is never replaced.
+ */
+@Log
+public class CrossDeviceMover {
+    static final String PART_SUFFIX = ".part";
+    private static final long TRANSFER_SIZE = 64L * 1024 * 1024;
+    private static final long PROGRESS_LOG_INTERVAL = 1024L * 1024 * 1024;
+    private static final int HASH_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * @param ed2kHash known hash of the source, if null the source is hashed as well to verify the copy
+     * @throws FileAlreadyExistsException if the target exists, the source is kept then
+     */
+    public void move(Path from, Path to, @Nullable String ed2kHash) throws IOException {
+        if (Files.exists(to)) {
+            throw new FileAlreadyExistsException(to.toString());
+        }
+        val partFile = to.resolveSibling(to.getFileName() + PART_SUFFIX);
+        val expectedHash = ed2kHash != null ? ed2kHash : hash(from);
+
+        copy(from, partFile, true);
+        if (!expectedHash.equalsIgnoreCase(hash(partFile))) {
+            log.warning(STR."Copy of \{from} does not match its hash, copying it again");
+            copy(from, partFile, false);
+            if (!expectedHash.equalsIgnoreCase(hash(partFile))) {
+                Files.deleteIfExists(partFile);
+                throw new IOException(STR."Copy of \{from} does not match its hash \{expectedHash}");
+            }
+        }
+
+        copyUserAttributes(from, partFile);
+        copyPosixAttributes(from, partFile);
+        Files.setLastModifiedTime(partFile, Files.getLastModifiedTime(from));
+        publish(partFile, to);
+        Files.delete(from);
+    }
+
+    /**
+     * Gives the copy its final name unless another file took it in the meantime
+     */
+    private static void publish(Path partFile, Path to) throws IOException {
+        try {
+            // Linking fails if the target exists, unlike a rename which would replace it
+            Files.createLink(to, partFile);
+            Files.delete(partFile);
+            return;
+        } catch (FileAlreadyExistsException e) {
+            Files.deleteIfExists(partFile);
+            throw e;
+        } catch (IOException | UnsupportedOperationException e) {
+            log.fine(STR."Could not link \{to}, renaming it instead: \{e.getMessage()}");
+        }
+        if (Files.exists(to)) {
+            Files.deleteIfExists(partFile);
+            throw new FileAlreadyExistsException(to.toString());
+        }
+        Files.move(partFile, to, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void copy(Path from, Path partFile, boolean resume) throws IOException {
+        try (val source = FileChannel.open(from, StandardOpenOption.READ);
+             val target = FileChannel.open(partFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            val size = source.size();
+            var position = resume ? target.size() : 0;
+            if (position > size) {
+                // Left over by another file
+                position = 0;
+            }
+            if (position > 0) {
+                log.info(STR."Continuing to copy \{from} at \{position} of \{size} bytes");
+            }
+            target.truncate(position);
+            target.position(position);
+
+            var nextProgressLog = position + PROGRESS_LOG_INTERVAL;
+            while (position < size) {
+                val transferred = source.transferTo(position, Math.min(TRANSFER_SIZE, size - position), target);
+                if (transferred <= 0) {
+                    throw new IOException(STR."\{from} became shorter while copying it");
+                }
+                position += transferred;
+                if (position >= nextProgressLog) {
+                    log.fine(STR."Copied \{position * 100 / size}% of \{from}");
+                    nextProgressLog += PROGRESS_LOG_INTERVAL;
+                }
+            }
+            target.force(true);
+        }
+    }
+
+    /**
+     * Copies the extended user attributes, i.e. the {@link Ed2kAttribute}, like a rename would keep them
+     */
+    private static void copyUserAttributes(Path from, Path to) {
+        val source = Files.getFileAttributeView(from, UserDefinedFileAttributeView.class);
+        val target = Files.getFileAttributeView(to, UserDefinedFileAttributeView.class);
+        if (source == null || target == null) {
+            return;
+        }
+        try {
+            for (val name : source.list()) {
+                val value = ByteBuffer.allocate(source.size(name));
+                source.read(name, value);
+                target.write(name, value.flip());
+            }
+        } catch (IOException | UnsupportedOperationException e) {
+            log.fine(STR."Could not copy the attributes of \{from}: \{e.getMessage()}");
+        }
+    }
+
+    /**
+     * Copies permissions, group and owner like the copy of the old fallback with {@link StandardCopyOption#COPY_ATTRIBUTES}
+     */
+    private static void copyPosixAttributes(Path from, Path to) {
+        val source = Files.getFileAttributeView(from, PosixFileAttributeView.class);
+        val target = Files.getFileAttributeView(to, PosixFileAttributeView.class);
+        if (source == null || target == null) {
+            return;
+        }
+        try {
+            val attributes = source.readAttributes();
+            target.setPermissions(attributes.permissions());
+            if (!attributes.group().equals(target.readAttributes().group())) {
+                target.setGroup(attributes.group());
+            }
+            if (!attributes.owner().equals(target.getOwner())) {
+                target.setOwner(attributes.owner());
+            }
+        } catch (IOException | UnsupportedOperationException e) {
+            // Only root may give files away
+            log.fine(STR."Could not copy the owner or permissions of \{from}: \{e.getMessage()}");
+        }
+    }
+
+    private static String hash(Path file) throws IOException {
+        try (val channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            val ed2k = new Edonkey();
+            val buffer = ByteBuffer.allocate(HASH_BUFFER_SIZE);
+            while (channel.read(buffer.clear()) > 0) {
+                ed2k.update(buffer.array(), 0, buffer.position());
+            }
+            return ed2k.getHexValue();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package processing;
+
+import lombok.extern.java.Log;
+import lombok.val;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Sorted listings of the directories files are renamed from and to, so the related files of every renamed file and
+ * taken targets are found without listing the directory again. A listing is reused as long as the modification
+ * time of the directory did not change. Moving a file updates the listings instead of discarding them, if the
+ * directories were not modified by anyone else up to the move.
+ */
+@Log
+class DirectoryListings {
+    private static final int MAX_DIRECTORIES = 64;
+
+    private final Map<Path, Listing> listings = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, Listing> eldest) {
+            return size() > MAX_DIRECTORIES;
+        }
+    };
+
+    /**
+     * @return names of the entries in the directory which start with the prefix
+     */
+    synchronized List<String> findByPrefix(Path directory, String prefix) throws IOException {
+        val found = new ArrayList<String>();
+        for (val name : getListing(directory).names.tailSet(prefix)) {
+            if (!name.startsWith(prefix)) {
+                break;
+            }
+            found.add(name);
+        }
+        return found;
+    }
+
+    /**
+     * @return true if the directory has an entry with the name
+     */
+    synchronized boolean contains(Path directory, String name) throws IOException {
+        return getListing(directory).names.contains(name);
+    }
+
+    /**
+     * @return the current modification times of the listed directories among the ones of source and target, to be
+     * passed to {@link #moved} after the move
+     */
+    synchronized Map<Path, FileTime> beforeMove(Path source, Path target) {
+        val lastModified = new HashMap<Path, FileTime>();
+        for (val directory : List.of(source.getParent(), target.getParent())) {
+            if (listings.containsKey(directory)) {
+                try {
+                    lastModified.put(directory, Files.getLastModifiedTime(directory));
+                } catch (IOException e) {
+                    listings.remove(directory);
+                }
+            }
+        }
+        return lastModified;
+    }
+
+    /**
+     * Updates the listings after a file was moved
+     *
+     * @param lastModified the modification times of the directories right before the move
+     */
+    synchronized void moved(Path source, Path target, Map<Path, FileTime> lastModified) {
+        update(source.getParent(), lastModified, names -> names.remove(source.getFileName().toString()));
+        update(target.getParent(), lastModified, names -> names.add(target.getFileName().toString()));
+    }
+
+    private void update(Path directory, Map<Path, FileTime> lastModified, Consumer<TreeSet<String>> change) {
+        val listing = listings.get(directory);
+        if (listing == null) {
+            return;
+        }
+        if (!listing.lastModified.equals(lastModified.get(directory))) {
+            // Modified by someone else since it was listed
+            listings.remove(directory);
+            return;
+        }
+        try {
+            listing.lastModified = Files.getLastModifiedTime(directory);
+            // A move within the directory changes it twice
+            lastModified.put(directory, listing.lastModified);
+            change.accept(listing.names);
+        } catch (IOException e) {
+            listings.remove(directory);
+        }
+    }
+
+    private Listing getListing(Path directory) throws IOException {
+        val lastModified = Files.getLastModifiedTime(directory);
+        var listing = listings.get(directory);
+        if (listing == null || !listing.lastModified.equals(lastModified)) {
+            listing = new Listing(lastModified, list(directory));
+            listings.put(directory, listing);
+        }
+        return listing;
+    }
+
+    private static TreeSet<String> list(Path directory) throws IOException {
+        log.finest(STR."Listing \{directory}");
+        val names = new TreeSet<String>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (val entry : entries) {
+                names.add(entry.getFileName().toString());
+            }
+        }
+        return names;
+    }
+
+    private static class Listing {
+        private FileTime lastModified;
+        private final TreeSet<String> names;
+
+        private Listing(FileTime lastModified, TreeSet<String> names) {
+            this.lastModified = lastModified;
+            this.names = names;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package processing;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.java.Log;
+import lombok.val;
+import processing.cache.FileCache;
+import processing.tagsystem.TagSystemTags;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Handles files which are copies of a file already in the library right after hashing, by looking up their
+ * ed2k hash and size in the {@link FileCache}. They are deleted or moved to the duplicates folder like duplicates
+ * found while renaming, without asking AniDB first. Only the copy in the library has to be unchanged and still be
+ * where it was cached, hard links to the same file are no copies.
+ */
+@Log
+@RequiredArgsConstructor
+class DuplicateResolver {
+    private final FileCache fileCache;
+    private final FileRenamer fileRenamer;
+
+    /**
+     * @return true if the file was a duplicate and has been handled
+     */
+    boolean resolve(FileInfo procFile) {
+        val configuration = procFile.getConfiguration();
+        // Duplicates are only handled when files are moved, files marked as watched have to reach AniDB
+        if (!procFile.isActionTodo(FileInfo.FileAction.Rename) || !configuration.isEnableFileMove()
+                || !(configuration.isDeleteDuplicateFiles() || configuration.isMoveDuplicateFiles())
+                || procFile.getWatched() != null) {
+            return false;
+        }
+        val ed2k = procFile.getData().get(TagSystemTags.Ed2kHash);
+        val file = procFile.getFile().toPath();
+        val original = fileCache.findByHash(ed2k, procFile.getFile().length());
+        if (original.isEmpty()) {
+            return false;
+        }
+        val originalPath = Path.of(original.get().path());
+        try {
+            val attributes = Files.readAttributes(originalPath, BasicFileAttributes.class);
+            if (!original.get().matches(attributes.size(), attributes.lastModifiedTime().toMillis())
+                    || Files.isSameFile(originalPath, file)) {
+                return false;
+            }
+        } catch (IOException e) {
+            // The original is gone, i.e. this file is the original moved somewhere else
+            return false;
+        }
+        log.info(STR."File \{file} is a duplicate of \{originalPath}");
+        fileRenamer.handleDuplicate(procFile, originalPath);
+        return true;
+    }
+}
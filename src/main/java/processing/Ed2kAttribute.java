@@ -0,0 +1,70 @@
+package processing;
+
+import lombok.extern.java.Log;
+import lombok.val;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.util.Optional;
+
+/**
+ * The ed2k hash stored in the extended attribute user.ed2k of the file itself, so it survives renames, moves by
+ * other applications and a lost cache. The size and modification time at the time of hashing are stored with it,
+ * the hash is only trusted while both are unchanged. Does nothing on file systems without user attributes.
+ */
+@Log
+public final class Ed2kAttribute {
+    static final String NAME = "ed2k";
+    private static final int MAX_VALUE_SIZE = 128;
+
+    private Ed2kAttribute() {
+    }
+
+    /**
+     * @param attributes current attributes of the file
+     * @return the stored hash if the file did not change since it was stored
+     */
+    public static Optional<String> read(Path file, BasicFileAttributes attributes) {
+        val view = Files.getFileAttributeView(file, UserDefinedFileAttributeView.class);
+        if (view == null) {
+            return Optional.empty();
+        }
+        try {
+            val buffer = ByteBuffer.allocate(MAX_VALUE_SIZE);
+            view.read(NAME, buffer);
+            val value = new String(buffer.array(), 0, buffer.position(), StandardCharsets.US_ASCII).split(" ");
+            if (value.length != 3
+                    || Long.parseLong(value[1]) != attributes.size()
+                    || Long.parseLong(value[2]) != attributes.lastModifiedTime().toMillis()) {
+                log.fine(STR."Ignoring outdated ed2k attribute of \{file}");
+                return Optional.empty();
+            }
+            return Optional.of(value[0]);
+        } catch (IOException | NumberFormatException | UnsupportedOperationException e) {
+            // Not stored yet or not supported
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * @param hashedAttributes attributes of the file before it was hashed, a file which changed while it was hashed
+     *                         is not trusted when reading the hash
+     */
+    public static void write(Path file, String ed2k, BasicFileAttributes hashedAttributes) {
+        val view = Files.getFileAttributeView(file, UserDefinedFileAttributeView.class);
+        if (view == null) {
+            return;
+        }
+        val value = STR."\{ed2k} \{hashedAttributes.size()} \{hashedAttributes.lastModifiedTime().toMillis()}";
+        try {
+            view.write(NAME, StandardCharsets.US_ASCII.encode(value));
+        } catch (IOException | UnsupportedOperationException e) {
+            log.fine(STR."Could not store the ed2k hash in the attributes of \{file}: \{e.getMessage()}");
+        }
+    }
+}
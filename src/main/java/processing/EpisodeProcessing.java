@@ -2,6 +2,7 @@ package processing;
 
 import java.io.*;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.*;
 
 import aniAdd.config.AniConfiguration;
@@ -9,14 +10,17 @@ import aniAdd.misc.ICallBack;
 import fileprocessor.FileProcessor;
 import lombok.extern.java.Log;
 import lombok.val;
+import org.jetbrains.annotations.Nullable;
 import processing.FileInfo.FileAction;
 
-import aniAdd.misc.MultiKeyDict;
-
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
+import processing.cache.FileCache;
 import processing.tagsystem.TagSystemTags;
 import udpapi.UdpApi;
+import udpapi.command.Command;
 import udpapi.command.FileCommand;
 import udpapi.command.LogoutCommand;
 import udpapi.command.MylistAddCommand;
@@ -28,41 +32,60 @@ public class EpisodeProcessing implements FileProcessor.Processor {
 
     private final UdpApi api;
     private final AniConfiguration configuration;
-    private final ExecutorService executorService;
-    private final FileRenamer fileRenamer;
+    private final ScheduledExecutorService executorService;
+    private final RenamePlanner renamePlanner;
     private final IFileHandler fileHandler;
+    private final FileCache fileCache;
+    private final FileRegistry files;
+    private final TailHasher tailHasher = new TailHasher();
+    private final HashBandwidthGovernor hashGovernor;
+    @Nullable private final FingerprintMatcher fingerprintMatcher;
+    @Nullable private final DuplicateResolver duplicateResolver;
+    // Hashing runs on its own threads, as many as devices times streams per device are hashed at the same time
+    private final ExecutorService hashExecutor = Executors.newCachedThreadPool();
     private final List<ICallBack<ProcessingEvent>> eventHandlers = new ArrayList<>();
 
     private boolean isProcessing;
+    // Files being hashed per device
+    private final Map<Object, Integer> hashing = new HashMap<>();
     private int lastFileId = 0;
-    private int filesBeingMoved;
+    // Scans whose files may still be added
+    private int pendingInputs = 0;
     private boolean shouldShutdown;
 
-
-    private enum KeyType {
-        Id, Path
-    }
-
-    private final MultiKeyDict<KeyType, Object, FileInfo> files = new MultiKeyDict<>(KeyType.class,
-            (type, fileInfo) -> type == KeyType.Id ? fileInfo.getId() : (type == KeyType.Path ? fileInfo.getFile().getAbsolutePath() : null));
-
-    public EpisodeProcessing(AniConfiguration configuration, UdpApi udpApi, ExecutorService executorService, IFileHandler fileHandler) {
+    public EpisodeProcessing(AniConfiguration configuration, UdpApi udpApi, ScheduledExecutorService executorService, IFileHandler fileHandler, FileCache fileCache) {
         this.configuration = configuration;
         this.api = udpApi;
         this.executorService = executorService;
         this.fileHandler = fileHandler;
-        this.fileRenamer = new FileRenamer(fileHandler);
+        this.fileCache = fileCache;
+        val fileRenamer = new FileRenamer(fileHandler);
+        this.renamePlanner = new RenamePlanner(fileRenamer, executorService);
+        this.duplicateResolver = configuration.isResolveDuplicatesLocally()
+                ? new DuplicateResolver(fileCache, fileRenamer)
+                : null;
+        this.hashGovernor = HashBandwidthGovernor.create(configuration);
+        this.fingerprintMatcher = configuration.isIdentifyByFingerprint()
+                ? new FingerprintMatcher(fileCache, configuration.isFingerprintSpotCheck())
+                : null;
+        this.files = new FileRegistry(Duration.ofMinutes(configuration.getFinishedFilesRetentionMinutes()),
+                configuration.getMaxFinishedFilesInMemory(), this::onEvicted,
+                new HashQueue(configuration.getHashOrder(), configuration.getHashStreamsPerDevice(),
+                        Objects.requireNonNullElse(configuration.getHashStreamsByDirectory(), Map.of())));
 
         api.registerCallback(LogoutCommand.class, cmd -> {
-            // Remove files after we automatically log out
+            // Move finished files to the cache after we automatically log out
             if (cmd.getCommand().isAutomatic()) {
-                log.info("Logged out, clearing cached files");
-                files.clear();
+                log.info("Logged out, evicting finished files");
+                files.evictFinished();
             }
         });
 
         api.registerCallback(FileCommand.class, this::aniDBInfoReply);
         api.registerCallback(MylistAddCommand.class, this::aniDBMyListReply);
+        if (configuration.isRefreshCacheWhenIdle() && fileCache.isPersistent()) {
+            api.setIdleCommandSource(new CacheRefresher(api, fileCache));
+        }
     }
 
     public void addListener(ICallBack<ProcessingEvent> handler) {
@@ -74,54 +97,80 @@ public class EpisodeProcessing implements FileProcessor.Processor {
     }
 
     private void processEps() {
-        for (FileInfo procFile : files.values()) {
-            if (!procFile.isHashed()) {
-                procFile.setHashed(true);
-                log.fine(STR."Processing file \{procFile.getFile().getAbsolutePath()} with Id \{procFile.getId()}");
-
-                while (filesBeingMoved > 0) {
-                    try {
-                        Thread.sleep(100);
-                    } catch (InterruptedException ex) {
+        while (true) {
+            Optional<HashQueue.Entry> next;
+            synchronized (this) {
+                if (!isProcessing) {
+                    return;
+                }
+                next = files.pollUnhashed(device -> hashing.getOrDefault(device, 0));
+                if (next.isEmpty()) {
+                    if (hashing.isEmpty() && !files.hasUnhashed()) {
+                        isProcessing = false;
+                        log.info("Initial Processing done");
                     }
+                    return;
                 }
-
-                executorService.execute(new FileParser(procFile.getFile(), procFile.getId(), this::onHashComputed, () -> shouldShutdown));
-                return;
+                hashing.merge(next.get().device(), 1, Integer::sum);
             }
+            val procFile = next.get().file();
+            val device = next.get().device();
+            procFile.setHashed(true);
+            log.fine(STR."Processing file \{procFile.getFile().getAbsolutePath()} with Id \{procFile.getId()}");
+
+            val partialHash = tailHasher.take(procFile.getFile()).orElse(null);
+            procFile.setTailHashed(partialHash != null);
+            FileParser.OnHashComputed onHashed = (tag, hash) -> {
+                synchronized (this) {
+                    hashing.computeIfPresent(device, (_, count) -> count > 1 ? count - 1 : null);
+                }
+                onHashComputed(tag, hash);
+            };
+            val parser = new FileParser(procFile.getFile(), procFile.getId(), onHashed, () -> shouldShutdown, partialHash,
+                    configuration.isDirectIoHashing(), configuration.getHashBufferSizeKiB() * 1024, hashGovernor,
+                    configuration.isEd2kExtendedAttribute());
+            hashExecutor.execute(() -> {
+                // Files partially hashed while downloading are new, there is nothing to recognize
+                val known = fingerprintMatcher != null && partialHash == null
+                        ? fingerprintMatcher.identify(procFile.getFile().toPath())
+                        : Optional.<FileParser.Hash>empty();
+                if (known.isPresent()) {
+                    onHashed.onHashComputed(procFile.getId(), known.get());
+                } else {
+                    parser.run();
+                }
+            });
         }
-        isProcessing = false;
-        log.info("Initial Processing done");
     }
 
-    private void onHashComputed(Integer tag, String hash) {
-        FileInfo procFile = files.get(KeyType.Id, tag);
+    private void onHashComputed(Integer tag, FileParser.Hash hash) {
+        FileInfo procFile = files.get(tag);
+        if (procFile != null) {
+            // Hard links to the same file are done with it
+            for (val link : files.takeUnhashedLinks(procFile)) {
+                onHashComputed(link.getId(), hash);
+            }
+        }
 
         if (procFile != null && hash != null) {
-            procFile.getData().put(TagSystemTags.Ed2kHash, hash);
+            procFile.getData().put(TagSystemTags.Ed2kHash, hash.ed2k());
+            procFile.setChunkHashes(hash.chunkHashes());
             procFile.actionDone(FileAction.Process);
             log.fine(STR."File \{procFile.getFile().getAbsolutePath()} with Id \{procFile.getId()} has been hashed");
 
-            boolean sendML = procFile.isActionTodo(FileAction.MyListCmd);
-            boolean sendFile = procFile.isActionTodo(FileAction.FileCmd);
-
-            if (sendFile) {
-                api.queueCommand(FileCommand.Create(procFile.getId(), procFile.getFile().length(), procFile.getData().get(TagSystemTags.Ed2kHash)));
-            }
-            if (sendML) {
-                api.queueCommand(MylistAddCommand.Create(
-                        procFile.getId(),
-                        procFile.getFile().length(),
-                        procFile.getData().get(TagSystemTags.Ed2kHash),
-                        procFile.getConfiguration().getSetStorageType().getValue(),
-                        procFile.getWatched() != null && procFile.getWatched()));
+            if (duplicateResolver != null && duplicateResolver.resolve(procFile)) {
+                // Neither AniDB nor renaming are needed for a copy of a file in the library
+                procFile.actionDone(FileAction.Rename);
+                procFile.setFinal(true);
+                finished(procFile);
+            } else {
+                requestData(procFile);
             }
-
-            log.fine(STR."Requested Data for file with Id \{procFile.getId()}: SendFile: \{sendFile}, SendML: \{sendML}");
-
         } else if (procFile != null) {
             procFile.actionFailed(FileAction.Process);
             log.warning(STR."File \{procFile.getFile().getAbsolutePath()} with Id \{procFile.getId()} could not be hashed");
+            procFile.setFinal(true);
+            finished(procFile);
         }
 
         if (isProcessing) {
@@ -129,13 +178,39 @@ public class EpisodeProcessing implements FileProcessor.Processor {
         }
     }
 
+    private void requestData(FileInfo procFile) {
+        boolean sendML = procFile.isActionTodo(FileAction.MyListCmd);
+        boolean sendFile = procFile.isActionTodo(FileAction.FileCmd);
+
+        if (sendFile) {
+            api.queueCommand(FileCommand.Create(procFile.getId(), procFile.getFile().length(), procFile.getData().get(TagSystemTags.Ed2kHash)));
+        }
+        if (sendML) {
+            api.queueCommand(MylistAddCommand.Create(
+                    procFile.getId(),
+                    procFile.getFile().length(),
+                    procFile.getData().get(TagSystemTags.Ed2kHash),
+                    procFile.getConfiguration().getSetStorageType().getValue(),
+                    procFile.getWatched() != null && procFile.getWatched()));
+        }
+
+        log.fine(STR."Requested Data for file with Id \{procFile.getId()}: SendFile: \{sendFile}, SendML: \{sendML}");
+        if (!sendFile && !sendML && shouldRunFinalProcessing(procFile)) {
+            // Nothing to wait for
+            finalProcessing(procFile);
+        }
+    }
+
     private void aniDBInfoReply(Query<FileCommand> query) {
         int fileId = query.getTag();
-        if (!files.contains(KeyType.Id, fileId)) {
+        if (!files.contains(fileId)) {
             return; //File not found (Todo: throw error)
         }
-        FileInfo procFile = files.get(KeyType.Id, fileId);
+        FileInfo procFile = files.get(fileId);
         val replyStatus = query.getReply().getReplyStatus();
+        if (isStale(query.getCommand(), procFile) || replyStatus == ReplyStatus.NO_SUCH_FILE && rehashIfTailHashed(procFile)) {
+            return;
+        }
         if (replyStatus == ReplyStatus.NO_SUCH_FILE
                 || replyStatus == ReplyStatus.ILLEGAL_INPUT_OR_ACCESS_DENIED
                 || replyStatus == ReplyStatus.MULTIPLE_FILES_FOUND) {
@@ -150,11 +225,12 @@ public class EpisodeProcessing implements FileProcessor.Processor {
             if (replyStatus == ReplyStatus.NO_SUCH_FILE && configuration.isMoveUnknownFiles()) {
                 File currentFile = procFile.getFile();
                 val unknownTargetPath = Paths.get(configuration.getUnknownFolder(), currentFile.getParentFile().getName(), currentFile.getName());
-                fileHandler.renameFile(currentFile.toPath(), unknownTargetPath);
+                fileHandler.renameFile(currentFile.toPath(), unknownTargetPath, procFile.getData().get(TagSystemTags.Ed2kHash));
             }
         } else {
             procFile.actionDone(FileAction.FileCmd);
             query.getCommand().AddReplyToDict(procFile.getData(), query.getReply(), procFile.getWatched());
+            procFile.setRefreshedAt(System.currentTimeMillis());
             log.fine(STR."Got DB Info for file \{procFile.getFile().getAbsolutePath()} with Id \{procFile.getId()}");
         }
 
@@ -168,12 +244,15 @@ public class EpisodeProcessing implements FileProcessor.Processor {
         val replyStatus = query.getReply().getReplyStatus();
 
         int fileId = query.getTag();
-        if (!files.contains(KeyType.Id, fileId)) {
+        if (!files.contains(fileId)) {
             //System.out.println("MLCmd: Id not found");
             return; //File not found (Todo: throw error)
         }
-        FileInfo procFile = files.get(KeyType.Id, fileId);
+        FileInfo procFile = files.get(fileId);
         val configuration = procFile.getConfiguration();
+        if (isStale(query.getCommand(), procFile) || replyStatus == ReplyStatus.NO_SUCH_FILE && rehashIfTailHashed(procFile)) {
+            return;
+        }
 
         if (replyStatus == ReplyStatus.MYLIST_ENTRY_ADDED
                 || replyStatus == ReplyStatus.MYLIST_ENTRY_EDITED) {
@@ -203,6 +282,31 @@ public class EpisodeProcessing implements FileProcessor.Processor {
         }
     }
 
+    /**
+     * @return true if the reply is for a hash the file does not have anymore
+     */
+    private static boolean isStale(Command command, FileInfo procFile) {
+        return !command.getParameters().get("ed2k").equalsIgnoreCase(procFile.getData().get(TagSystemTags.Ed2kHash));
+    }
+
+    /**
+     * A file hashed while it was downloaded gets a wrong hash if it was not written sequentially after all, so it
+     * is hashed again from the start before it is treated as unknown
+     *
+     * @return true if the file is hashed again
+     */
+    private boolean rehashIfTailHashed(FileInfo procFile) {
+        if (!procFile.isTailHashed()) {
+            return false;
+        }
+        log.info(STR."File \{procFile.getFile().getAbsolutePath()} with Id \{procFile.getId()} was hashed while downloading and is unknown, hashing it again");
+        procFile.setTailHashed(false);
+        procFile.getData().remove(TagSystemTags.Ed2kHash);
+        files.rehash(procFile);
+        startProcessing();
+        return true;
+    }
+
     private boolean shouldRunFinalProcessing(FileInfo procFile) {
         return !procFile.isFinal() && !(procFile.isActionTodo(FileAction.FileCmd) || (procFile.isActionTodo(FileAction.MyListCmd)));
     }
@@ -210,51 +314,65 @@ public class EpisodeProcessing implements FileProcessor.Processor {
     private void finalProcessing(FileInfo procFile) {
         procFile.setFinal(true);
 
-        if (procFile.isActionTodo(FileAction.Rename) && procFile.isActionDone(FileAction.FileCmd)) {
-
-            while (filesBeingMoved > 0) {
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException ex) {
-                }
-            }
-
-            synchronized (this) {
-                filesBeingMoved++;
-            }
-
-            try {
-                if (fileRenamer.renameFile(procFile)) {
+        if (procFile.isActionTodo(FileAction.Rename) && !files.isRenamedLink(procFile, configuration.getHardLinkPolicy())) {
+            log.info(STR."Not moving \{procFile.getFile().getAbsolutePath()}, another hard link to it is moved");
+        } else if (procFile.isActionTodo(FileAction.Rename) && procFile.isActionDone(FileAction.FileCmd)) {
+            renamePlanner.add(procFile, success -> {
+                if (success) {
                     procFile.actionDone(FileAction.Rename);
                 } else {
                     procFile.actionFailed(FileAction.Rename);
                 }
-            } catch (Exception e) {
-            }
-
-            synchronized (this) {
-                filesBeingMoved--;
-            }
+                finished(procFile);
+            });
+            return;
         }
+        finished(procFile);
+    }
 
+    private void finished(FileInfo procFile) {
         log.fine(STR."File \{procFile.getFile().getAbsolutePath()} with Id \{procFile.getId()} done");
-        if (files.values().stream().allMatch(FileInfo::isFinal)) {
+        files.markFinished(procFile);
+        if (isDone()) {
             sendEvent(ProcessingEvent.Done);
         }
     }
 
+    private synchronized boolean isDone() {
+        return pendingInputs == 0 && files.isIdle();
+    }
+
+    private void onEvicted(FileInfo procFile) {
+        tailHasher.forget(procFile.getFile());
+        // Failed files must not be skipped as processed by the next scan
+        if (!procFile.hasFailed()) {
+            fileCache.put(procFile);
+        }
+    }
+
     public void addFiles(Collection<File> newFiles) {
-        addFiles(newFiles, configuration);
+        addFiles(newFiles, configuration, true);
     }
 
     public void addFiles(Collection<File> newFiles, AniConfiguration configuration) {
+        // Explicitly added files (i.e. to mark them as watched) must not be skipped because they are cached
+        addFiles(newFiles, configuration, false);
+    }
+
+    private synchronized void addFiles(Collection<File> newFiles, AniConfiguration configuration, boolean skipCached) {
         Boolean watched = configuration.isSetWatched() ? true : null;
 
         for (File cf : newFiles) {
-            if (files.contains(KeyType.Path, cf.getAbsolutePath())) {
+            if (files.removeFailed(cf)) {
+                log.info(STR."Retrying \{cf.getAbsolutePath()}, it failed before");
+            } else if (files.contains(cf)) {
                 log.info(STR."File \{cf.getAbsolutePath()} already in processing/processed");
                 continue;
             }
+            if (skipCached && fileCache.isUnchanged(cf)) {
+                log.fine(STR."File \{cf.getAbsolutePath()} has already been processed and did not change");
+                continue;
+            }
 
             FileInfo fileInfo = new FileInfo(cf, lastFileId);
             fileInfo.addTodo(FileAction.Process);
@@ -274,20 +392,70 @@ public class EpisodeProcessing implements FileProcessor.Processor {
 
             files.put(fileInfo);
             lastFileId++;
+            files.takeHashedLink(fileInfo).ifPresent(link -> onHashComputed(fileInfo.getId(),
+                    new FileParser.Hash(link.getData().get(TagSystemTags.Ed2kHash), link.getChunkHashes())));
         }
         log.fine(STR."File Count changed to \{files.size()}");
     }
 
+    /**
+     * Pauses hashing while something is played, if configured
+     */
+    public void setPlaybackActive(boolean active) {
+        if (configuration.isPauseHashingDuringPlayback()) {
+            hashGovernor.setPaused(active);
+        }
+    }
+
+    @Override
+    public void fileChanged(File file) {
+        if (configuration.isHashWhileDownloading()) {
+            executorService.execute(() -> tailHasher.update(file));
+        }
+    }
+
+    @Override
+    public synchronized void inputPending() {
+        pendingInputs++;
+    }
+
+    @Override
+    public void inputComplete() {
+        synchronized (this) {
+            pendingInputs--;
+        }
+        // All files may have been skipped, vanished or finished already
+        if (isDone()) {
+            sendEvent(ProcessingEvent.Done);
+        }
+    }
+
+    @Override
+    public boolean isProcessed(File file) {
+        return files.isProcessed(file) || fileCache.isUnchanged(file);
+    }
+
     @Override
     public void start() {
-        isProcessing = true;
-        log.info("Starting processing");
+        startProcessing();
+    }
+
+    private void startProcessing() {
+        synchronized (this) {
+            if (!isProcessing) {
+                log.info("Starting processing");
+                isProcessing = true;
+            }
+        }
+        // Newly added files may be stored on a device which is not busy yet
         processEps();
     }
 
     public void Terminate() {
         isProcessing = false;
         shouldShutdown = true;
+        hashExecutor.shutdownNow();
+        files.evictFinished();
     }
 
     public enum ProcessingEvent {
@@ -1,18 +1,52 @@
 package processing;
 
 import lombok.extern.java.Log;
+import lombok.val;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Log
 public class FileHandler implements IFileHandler {
+    private final CrossDeviceMover crossDeviceMover = new CrossDeviceMover();
+    // Directories files were moved or deleted from, null if nobody cleans them up
+    @Nullable private final Set<Path> vacatedDirectories;
+
+    public FileHandler() {
+        this(false);
+    }
+
+    public FileHandler(boolean trackVacatedDirectories) {
+        vacatedDirectories = trackVacatedDirectories ? ConcurrentHashMap.newKeySet() : null;
+    }
+
+    /**
+     * @return the directories files were moved or deleted from since the last call
+     */
+    public Set<Path> takeVacatedDirectories() {
+        if (vacatedDirectories == null) {
+            return Set.of();
+        }
+        val directories = new HashSet<Path>();
+        vacatedDirectories.removeIf(directories::add);
+        return directories;
+    }
+
+    private void vacated(Path file) {
+        if (vacatedDirectories != null && file.toAbsolutePath().getParent() != null) {
+            vacatedDirectories.add(file.toAbsolutePath().getParent());
+        }
+    }
 
     @Override
-    public boolean renameFile(@NotNull Path from, @NotNull Path to) {
+    public boolean renameFile(@NotNull Path from, @NotNull Path to, @Nullable String ed2kHash) {
         if (to.toString().isBlank()) {
             log.severe(STR."Target path is blank for File '\{from.toAbsolutePath().toString()}': '\{to.toString()}'");
             return false;
@@ -35,18 +69,16 @@ public class FileHandler implements IFileHandler {
 
         try {
             Files.move(from, to, StandardCopyOption.ATOMIC_MOVE);
+            vacated(from);
             return true;
         } catch (IOException e) {
             log.info(STR."Could not move file from \{from.toAbsolutePath()} to \{to.toAbsolutePath()}: \{e.getMessage()}. Will try to copy instead");
         }
         log.fine(STR."Copying file from \{from.toAbsolutePath()} to \{to.toAbsolutePath()}");
         try {
-            Files.copy(from, to, StandardCopyOption.COPY_ATTRIBUTES);
-            // Even though Files.copy should throw an exception if it fails, we still check if the file was copied correctly
-            if (Files.exists(to) && Files.size(to) == Files.size(from)) {
-                log.fine(STR."Successfully copied file from \{from.toAbsolutePath()} to \{to.toAbsolutePath()}. Deleting original file.");
-                Files.delete(from);
-            }
+            crossDeviceMover.move(from, to, ed2kHash);
+            vacated(from);
+            log.fine(STR."Successfully copied file from \{from.toAbsolutePath()} to \{to.toAbsolutePath()} and deleted the original file.");
             return true;
         } catch (IOException e) {
             log.severe(STR."Could not move file from \{from.toAbsolutePath()} to \{to.toAbsolutePath()}: \{e.getMessage()}.");
@@ -59,6 +91,7 @@ public class FileHandler implements IFileHandler {
         log.fine(STR."Deleting file \{path.toAbsolutePath()}");
         try {
             Files.delete(path);
+            vacated(path);
         } catch (IOException e) {
             log.severe(STR."Could not delete file \{path.toAbsolutePath()}: \{e.getMessage()}");
         }
@@ -24,6 +24,12 @@ public class FileInfo {
     @Getter @Setter private Path renamedFile;
     @Getter @Setter private Boolean watched;
     @Getter @Setter private boolean hashed;
+    // Hashed partly while it was downloaded
+    @Getter @Setter private boolean tailHashed;
+    // md4 of every ed2k chunk, 32 hex digits each
+    @Getter @Setter private String chunkHashes;
+    // Time in milliseconds the AniDB data was received, 0 if unknown
+    @Getter @Setter private long refreshedAt;
     @Getter @Setter private boolean isFinal;
     @Getter @Setter private AniConfiguration configuration;
 
@@ -50,4 +56,8 @@ public class FileInfo {
         actionsTodo.remove(action);
         actionsError.add(action);
     }
+
+    public boolean hasFailed() {
+        return !actionsError.isEmpty();
+    }
 }
@@ -2,10 +2,17 @@ package processing;
 
 import ed2kHasher.Edonkey;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.java.Log;
+import lombok.val;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.NoSuchAlgorithmException;
 
+@Log
 @RequiredArgsConstructor
 public class FileParser implements Runnable {
 
@@ -13,40 +20,96 @@ public class FileParser implements Runnable {
     private final Integer tag;
     private final OnHashComputed onHashComputed;
     private final Termination termination;
+    // Progress of hashing the file while it was downloaded
+    @Nullable private final TailHasher.PartialHash partialHash;
+    private final boolean directIo;
+    private final int bufferSize;
+    @Nullable private final HashBandwidthGovernor governor;
+    // Read the hash from and store it in the user.ed2k attribute of the file
+    private final boolean ed2kAttribute;
 
     @Override
     public void run() {
-        String hash = null;
+        Hash hash = null;
 
         if (file.isDirectory()) {
-            // We don't hash directories
+            // We don't hash directories, but the processing has to go on
+            onHashComputed.onHashComputed(tag, null);
             return;
         }
 
         try {
-            Edonkey ed2k = new Edonkey();
-            byte[] b = new byte[1024 * 1024 * 4];
-
-            try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(file))) {
-                int numRead;
-                while ((numRead = bis.read(b)) != -1 && !termination.shouldTerminate()) {
-                    ed2k.update(b, 0, numRead);
+            val attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            if (ed2kAttribute && partialHash == null) {
+                val stored = Ed2kAttribute.read(file.toPath(), attributes);
+                if (stored.isPresent()) {
+                    log.fine(STR."Using the ed2k hash stored in the attributes of \{file}");
+                    onHashComputed.onHashComputed(tag, new Hash(stored.get(), null));
+                    return;
                 }
-                hash = ed2k.getHexValue();
             }
-
+            hash = hash(file.toPath(), partialHash, directIo, bufferSize, governor, termination);
+            // A hash computed while downloading is only trusted once AniDB knows it
+            if (hash != null && ed2kAttribute && partialHash == null) {
+                Ed2kAttribute.write(file.toPath(), hash.ed2k(), attributes);
+            }
         } catch (NoSuchAlgorithmException | IOException e) {
             e.printStackTrace();
+        } catch (InterruptedException e) {
+            // Reported as not hashed, so the file does not stay in hashing forever
+            log.warning(STR."Hashing \{file} was interrupted");
+            Thread.currentThread().interrupt();
         }
 
-
         if (!termination.shouldTerminate()) {
             onHashComputed.onHashComputed(tag, hash);
         }
     }
 
+    /**
+     * @param partialHash progress of hashing the file while it was downloaded
+     * @param directIo    true to read the file without the page cache
+     * @param bufferSize  bytes read at once
+     * @param governor    limits how fast the file is read
+     * @return the ed2k hash of the file or null if it was terminated
+     */
+    public static Hash hash(Path file, @Nullable TailHasher.PartialHash partialHash, boolean directIo, int bufferSize,
+                              @Nullable HashBandwidthGovernor governor, Termination termination) throws NoSuchAlgorithmException, IOException, InterruptedException {
+        Edonkey ed2k = partialHash != null ? partialHash.getEd2k() : new Edonkey();
+        byte[] b = new byte[bufferSize];
+        val device = governor != null ? governor.getDevice(file) : null;
+
+        try (val reader = HashReader.open(file, partialHash != null ? partialHash.getOffset() : 0, bufferSize, directIo)) {
+            while (true) {
+                if (device != null) {
+                    device.acquire(b.length);
+                }
+                val start = System.nanoTime();
+                val numRead = reader.read(b);
+                if (numRead == -1) {
+                    break;
+                }
+                if (device != null) {
+                    device.completed(numRead, System.nanoTime() - start);
+                }
+                if (termination.shouldTerminate()) {
+                    return null;
+                }
+                ed2k.update(b, 0, numRead);
+            }
+        }
+        val chunkHashes = ed2k.getChunkHashes();
+        return new Hash(ed2k.getHexValue(), chunkHashes);
+    }
+
+    /**
+     * @param chunkHashes md4 of every ed2k chunk, 32 hex digits each, null if unknown
+     */
+    public record Hash(String ed2k, @Nullable String chunkHashes) {
+    }
+
     public interface OnHashComputed {
-        void onHashComputed(Integer tag, String hash);
+        void onHashComputed(Integer tag, @Nullable Hash hash);
     }
 
     public interface Termination {
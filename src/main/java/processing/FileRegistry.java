@@ -0,0 +1,264 @@
+package processing;
+
+import aniAdd.config.AniConfiguration.HardLinkPolicy;
+import aniAdd.misc.ICallBack;
+import aniAdd.misc.IntObjectMap;
+import aniAdd.misc.PathIndex;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.java.Log;
+import lombok.val;
+import processing.FileInfo.FileAction;
+import processing.tagsystem.TagSystemTags;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.*;
+import java.util.function.ToIntFunction;
+
+/**
+ * Files currently known to the processing, indexed by id and by path.
+ * Files which are done are kept for a while (so that repeated scans don't pick them up again)
+ * and then evicted, least recently finished first, once there are too many or they are too old.
+ * Evicted files are handed to the callback after the registry is unlocked, as persisting them does I/O.
+ * Hard links to the same file are grouped by their file key (device and inode), only the first one found is
+ * hashed, the others take its hash.
+ */
+@Log
+@RequiredArgsConstructor
+class FileRegistry {
+    private final IntObjectMap<FileInfo> byId = new IntObjectMap<>();
+    private final PathIndex<FileInfo> byPath = new PathIndex<>();
+    // Insertion ordered: the first entry is the one that finished first
+    private final LinkedHashMap<Integer, Long> finishedAt = new LinkedHashMap<>();
+    // Files with several hard links in the order they were found, by file key
+    private final Map<Object, List<FileInfo>> links = new HashMap<>();
+    private final Map<Integer, Object> fileKeys = new HashMap<>();
+
+    private final Duration retention;
+    private final int maxFinished;
+    private final ICallBack<FileInfo> onEvicted;
+    private final HashQueue unhashed;
+
+    public synchronized void put(FileInfo fileInfo) {
+        byId.put(fileInfo.getId(), fileInfo);
+        byPath.put(fileInfo.getFile(), fileInfo);
+        val fileKey = getLinkedFileKey(fileInfo.getFile());
+        if (fileKey.isPresent()) {
+            fileKeys.put(fileInfo.getId(), fileKey.get());
+            val group = links.computeIfAbsent(fileKey.get(), _ -> new ArrayList<>());
+            // Links to a file which could not be hashed are hashed on their own
+            val hashedLink = group.stream()
+                    .filter(link -> link.isActionTodo(FileAction.Process) || link.isActionDone(FileAction.Process))
+                    .findFirst();
+            group.add(fileInfo);
+            if (hashedLink.isPresent()) {
+                log.fine(STR."\{fileInfo.getFile()} is a hard link to \{hashedLink.get().getFile()}, hashing it only once");
+                return;
+            }
+        }
+        unhashed.add(fileInfo);
+    }
+
+    /**
+     * @return the other links to the same file which were not hashed yet, they count as hashed from now on
+     */
+    public synchronized List<FileInfo> takeUnhashedLinks(FileInfo fileInfo) {
+        val group = getLinks(fileInfo);
+        val unhashedLinks = new ArrayList<FileInfo>();
+        for (val link : group) {
+            if (link != fileInfo && !link.isHashed()) {
+                link.setHashed(true);
+                unhashedLinks.add(link);
+            }
+        }
+        return unhashedLinks;
+    }
+
+    /**
+     * @return another link to the same file which was already hashed, the file counts as hashed from now on
+     */
+    public synchronized Optional<FileInfo> takeHashedLink(FileInfo fileInfo) {
+        if (fileInfo.isHashed()) {
+            return Optional.empty();
+        }
+        val hashed = getLinks(fileInfo).stream()
+                .filter(link -> link != fileInfo && link.getData().containsKey(TagSystemTags.Ed2kHash))
+                .findFirst();
+        hashed.ifPresent(_ -> fileInfo.setHashed(true));
+        return hashed;
+    }
+
+    /**
+     * Decided against the links found so far, not the ones a scan which is still running may find later
+     *
+     * @return true if the file is the link which is renamed and moved
+     */
+    public synchronized boolean isRenamedLink(FileInfo fileInfo, HardLinkPolicy policy) {
+        val group = getLinks(fileInfo);
+        return switch (policy) {
+            case ALL -> true;
+            case FIRST_FOUND -> group.isEmpty() || group.getFirst() == fileInfo;
+            case LAST_FOUND -> group.isEmpty() || group.getLast() == fileInfo;
+        };
+    }
+
+    private List<FileInfo> getLinks(FileInfo fileInfo) {
+        val fileKey = fileKeys.get(fileInfo.getId());
+        return fileKey != null ? links.getOrDefault(fileKey, List.of()) : List.of();
+    }
+
+    /**
+     * @return the device and inode of a file with more than one hard link
+     */
+    private static Optional<Object> getLinkedFileKey(File file) {
+        try {
+            val path = file.toPath();
+            if (!(Files.getAttribute(path, "unix:nlink") instanceof Integer linkCount) || linkCount < 2) {
+                return Optional.empty();
+            }
+            return Optional.ofNullable(Files.readAttributes(path, BasicFileAttributes.class).fileKey());
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+            return Optional.empty();
+        }
+    }
+
+    public synchronized FileInfo get(int id) {
+        return byId.get(id);
+    }
+
+    public synchronized boolean contains(int id) {
+        return byId.containsKey(id);
+    }
+
+    public synchronized boolean contains(File file) {
+        return byPath.contains(file);
+    }
+
+    /**
+     * @return true if the file is finished and did not fail
+     */
+    public synchronized boolean isProcessed(File file) {
+        val fileInfo = byPath.get(file);
+        return fileInfo != null && finishedAt.containsKey(fileInfo.getId()) && !fileInfo.hasFailed();
+    }
+
+    /**
+     * Forgets a finished file which failed, so it can be added and processed again
+     *
+     * @return true if the file was removed
+     */
+    public synchronized boolean removeFailed(File file) {
+        val fileInfo = byPath.get(file);
+        if (fileInfo == null || !finishedAt.containsKey(fileInfo.getId()) || !fileInfo.hasFailed()) {
+            return false;
+        }
+        finishedAt.remove(fileInfo.getId());
+        byId.remove(fileInfo.getId());
+        byPath.remove(file);
+        removeLink(fileInfo);
+        return true;
+    }
+
+    /**
+     * @param hashing how many files of a device are being hashed
+     * @return the next file which has not been handed out for hashing yet
+     */
+    public synchronized Optional<HashQueue.Entry> pollUnhashed(ToIntFunction<Object> hashing) {
+        Optional<HashQueue.Entry> next;
+        while ((next = unhashed.poll(hashing)).isPresent()) {
+            val fileInfo = next.get().file();
+            if (!fileInfo.isHashed() && byId.containsKey(fileInfo.getId())) {
+                return next;
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Queues a hashed file to be hashed again
+     */
+    public synchronized void rehash(FileInfo fileInfo) {
+        fileInfo.setHashed(false);
+        fileInfo.addTodo(FileAction.Process);
+        unhashed.add(fileInfo);
+    }
+
+    public synchronized boolean hasUnhashed() {
+        return !unhashed.isEmpty();
+    }
+
+    public void markFinished(FileInfo fileInfo) {
+        List<FileInfo> evicted;
+        synchronized (this) {
+            if (!byId.containsKey(fileInfo.getId())) {
+                return;
+            }
+            finishedAt.put(fileInfo.getId(), System.currentTimeMillis());
+            evicted = evict(false);
+        }
+        evicted.forEach(onEvicted::invoke);
+    }
+
+    /**
+     * @return true if every known file is done
+     */
+    public synchronized boolean isIdle() {
+        return finishedAt.size() == byId.size();
+    }
+
+    public synchronized int size() {
+        return byId.size();
+    }
+
+    /**
+     * Evict all finished files, files still being processed are kept.
+     */
+    public void evictFinished() {
+        List<FileInfo> evicted;
+        synchronized (this) {
+            evicted = evict(true);
+        }
+        evicted.forEach(onEvicted::invoke);
+    }
+
+    /**
+     * @return the evicted files, still to be handed to the callback
+     */
+    private List<FileInfo> evict(boolean all) {
+        val oldestToKeep = System.currentTimeMillis() - retention.toMillis();
+        val iterator = finishedAt.entrySet().iterator();
+        val evicted = new ArrayList<FileInfo>();
+        while (iterator.hasNext()) {
+            val entry = iterator.next();
+            if (!all && finishedAt.size() <= maxFinished && entry.getValue() >= oldestToKeep) {
+                break;
+            }
+            iterator.remove();
+            val fileInfo = byId.remove(entry.getKey());
+            if (fileInfo != null) {
+                byPath.remove(fileInfo.getFile());
+                removeLink(fileInfo);
+                evicted.add(fileInfo);
+            }
+        }
+        if (!evicted.isEmpty()) {
+            log.fine(STR."Evicted \{evicted.size()} finished files, \{byId.size()} files remaining");
+        }
+        return evicted;
+    }
+
+    private void removeLink(FileInfo fileInfo) {
+        val fileKey = fileKeys.remove(fileInfo.getId());
+        if (fileKey == null) {
+            return;
+        }
+        val group = links.get(fileKey);
+        group.remove(fileInfo);
+        if (group.isEmpty()) {
+            links.remove(fileKey);
+        }
+    }
+}
@@ -8,95 +8,134 @@ import processing.tagsystem.TagSystem;
 import processing.tagsystem.TagSystemResult;
 import processing.tagsystem.TagSystemTags;
 
-import java.io.File;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Optional;
+import java.util.*;
 
 @Log
 @RequiredArgsConstructor
 public class FileRenamer {
 
     private final IFileHandler fileHandler;
+    private final DirectoryListings directoryListings = new DirectoryListings();
 
-    public boolean renameFile(FileInfo procFile) {
+    /**
+     * Handles a file whose target is taken by another file. Duplicates are only handled if moving is enabled, else
+     * files are renamed in place, so an existing target means the name is already correct.
+     */
+    public void handleDuplicate(FileInfo procFile, Path targetFilePath) {
         val configuration = procFile.getConfiguration();
-        try {
+        log.info(STR."Destination for File \{procFile.getFile().getAbsolutePath()} with Id \{procFile.getId()} already exists: \{targetFilePath.toString()}");
+        if (!configuration.isEnableFileMove()) {
+            return;
+        }
+        if (configuration.isDeleteDuplicateFiles()) {
+            fileHandler.deleteFile(procFile.getFile().toPath());
+        } else if (configuration.isMoveDuplicateFiles()) {
+            val relatedFiles = findRelatedFiles(procFile);
+            val subFolderWithFile = targetFilePath.subpath(targetFilePath.getNameCount() - 2, targetFilePath.getNameCount());
+            val targetPath = Paths.get(configuration.getDuplicatesFolder()).resolve(subFolderWithFile);
+            moveOut(procFile.getFile().toPath(), targetPath, procFile.getData().get(TagSystemTags.Ed2kHash));
+            renameRelatedFiles(procFile, relatedFiles, targetPath.getFileName().toString(), targetPath.getParent());
+        }
+    }
 
-            val targetFolder = getTargetFolder(procFile);
-            val targetFileName = getTargetFileName(procFile, targetFolder.getRight());
+    /**
+     * Evaluates where the file belongs according to the configuration, without touching the file system
+     *
+     * @return the target path or empty if it could not be determined
+     */
+    public static Optional<Path> getTargetPath(FileInfo procFile) throws Exception {
+        val targetFolder = getTargetFolder(procFile);
+        val targetFileName = getTargetFileName(procFile, targetFolder.getRight());
 
-            if (targetFileName.isEmpty()) {
-                return false;
-            }
+        if (targetFileName.isEmpty() || targetFolder.getLeft() == null) {
+            return Optional.empty();
+        }
 
-            val fileExtension = procFile.getFile().getName().substring(procFile.getFile().getName().lastIndexOf("."));
-            var filename = targetFileName.get() + fileExtension;
-            filename = filename.replaceAll("[\\\\:\"/*|<>?]", "");
+        val fileExtension = procFile.getFile().getName().substring(procFile.getFile().getName().lastIndexOf("."));
+        var filename = targetFileName.get() + fileExtension;
+        filename = filename.replaceAll("[\\\\:\"/*|<>?]", "");
 
-            val targetFolderPath = targetFolder.getLeft();
+        val targetFolderPath = targetFolder.getLeft();
 
-            if (targetFileName.get().length() + targetFolderPath.toString().length() > 240) {
-                filename = filename.substring(0, 240 - targetFolderPath.toString().length() - fileExtension.length()) + fileExtension;
-            }
-            val targetFilePath = targetFolderPath.resolve(filename);
-
-            if (Files.exists(targetFilePath)) {
-                log.info(STR."Destination for File \{procFile.getFile().getAbsolutePath()} with Id \{procFile.getId()} already exists: \{targetFilePath.toString()}");
-                if (configuration.isEnableFileMove()) {
-                    // Only handle duplicates if moving is enabled, else we want to rename in place so duplicate means it's name is correct
-                    if (configuration.isDeleteDuplicateFiles()) {
-                        fileHandler.deleteFile(procFile.getFile().toPath());
-                    } else if (configuration.isMoveDuplicateFiles()) {
-                        val oldFilename = procFile.getFile().getName();
-                        val subFolderWithFile = targetFilePath.subpath(targetFilePath.getNameCount() - 2, targetFilePath.getNameCount());
-                        val targetPath = Paths.get(configuration.getDuplicatesFolder()).resolve(subFolderWithFile);
-                        fileHandler.renameFile(procFile.getFile().toPath(), targetPath);
-                        if (configuration.isRenameRelatedFiles()) {
-                            renameRelatedFiles(procFile, oldFilename, targetPath.getFileName().toString(), targetPath.getParent());
-                        }
-                    }
-                }
-                return false;
-            }
-            if (targetFilePath.equals(procFile.getFile().toPath().toAbsolutePath())) {
-                log.fine(STR."File \{procFile.getFile().getAbsolutePath()} with Id \{procFile.getId()} does not need renaming.");
-                return true;
-            }
+        if (targetFileName.get().length() + targetFolderPath.toString().length() > 240) {
+            filename = filename.substring(0, 240 - targetFolderPath.toString().length() - fileExtension.length()) + fileExtension;
+        }
+        return Optional.of(targetFolderPath.resolve(filename));
+    }
 
-            val oldFilename = procFile.getFile().getName();
-            if (fileHandler.renameFile(procFile.getFile().toPath(), targetFilePath)) {
-                log.fine(STR."File \{procFile.getFile().getAbsolutePath()} with Id \{procFile.getId()} renamed to \{targetFilePath.toString()}");
-                if (configuration.isRenameRelatedFiles()) {
-                    renameRelatedFiles(procFile, oldFilename, targetFilePath.getFileName().toString(), targetFolderPath);
-                }
+    /**
+     * Moves the file and its related files to the target path
+     */
+    public boolean moveFile(FileInfo procFile, Path targetFilePath) {
+        // The directory still has to contain the file, else its listing would be outdated by the move
+        val relatedFiles = findRelatedFiles(procFile);
+        if (moveOut(procFile.getFile().toPath(), targetFilePath, procFile.getData().get(TagSystemTags.Ed2kHash))) {
+            log.fine(STR."File \{procFile.getFile().getAbsolutePath()} with Id \{procFile.getId()} renamed to \{targetFilePath.toString()}");
+            renameRelatedFiles(procFile, relatedFiles, targetFilePath.getFileName().toString(), targetFilePath.getParent());
+
+            procFile.setRenamedFile(targetFilePath);
+            return true;
+        }
+        return false;
+    }
 
-                procFile.setRenamedFile(targetFilePath);
-                return true;
-            }
-            return false;
-        } catch (Exception ex) {
-            ex.printStackTrace();
-            log.severe(STR."Renaming failed for File \{procFile.getFile().getAbsolutePath()} with Id \{procFile.getId()}: \{ex.getMessage()}");
+    /**
+     * @return names of the files next to the file which share its name, i.e. subtitles
+     */
+    private List<String> findRelatedFiles(FileInfo procFile) {
+        if (!procFile.getConfiguration().isRenameRelatedFiles()) {
+            return List.of();
+        }
+        val oldFilename = procFile.getFile().getName();
+        try {
+            val oldFilenameWithoutExtension = oldFilename.substring(0, oldFilename.lastIndexOf("."));
+            val relatedFiles = new ArrayList<>(directoryListings.findByPrefix(procFile.getFile().getParentFile().toPath(), oldFilenameWithoutExtension));
+            relatedFiles.remove(oldFilename);
+            return relatedFiles;
+        } catch (Exception e) {
+            log.severe(STR."Failed to find related files for \{procFile.getFile().getAbsolutePath()} with Id \{procFile.getId()}: \{e.getMessage()}");
+            return List.of();
+        }
+    }
+
+    /**
+     * @return true if the file exists, looked up in the listing of its directory
+     */
+    public boolean exists(Path path) {
+        try {
+            return directoryListings.contains(path.getParent(), path.getFileName().toString());
+        } catch (IOException e) {
+            return Files.exists(path);
+        }
+    }
+
+    /**
+     * Moves a file and keeps the listings of both directories up to date
+     */
+    private boolean moveOut(Path source, Path target, String ed2kHash) {
+        val lastModified = directoryListings.beforeMove(source, target);
+        if (!fileHandler.renameFile(source, target, ed2kHash)) {
             return false;
         }
+        directoryListings.moved(source, target, lastModified);
+        return true;
     }
 
-    private void renameRelatedFiles(FileInfo procFile, String oldFilename, String newFilename, Path folderPath) {
+    private void renameRelatedFiles(FileInfo procFile, List<String> relatedFiles, String newFilename, Path folderPath) {
+        val oldFilename = procFile.getFile().getName();
+        val srcFolder = procFile.getFile().getParentFile().toPath();
         try {
-            val srcFolder = procFile.getFile().getParentFile();
             val oldFilenameWithoutExtension = oldFilename.substring(0, oldFilename.lastIndexOf("."));
-            val srcFiles = srcFolder.listFiles((file) -> file.getName().startsWith(oldFilenameWithoutExtension) && !file.getName().equals(oldFilename));
-
             val relatedFileSuffixes = new HashSet<String>();
 
             val newFilenameWithoutExtension = newFilename.substring(0, newFilename.lastIndexOf("."));
-            for (File srcFile : srcFiles) {
-                val relatedSuffix = srcFile.getName().substring(oldFilenameWithoutExtension.length());
-                if (fileHandler.renameFile(srcFile.toPath(), folderPath.resolve(newFilenameWithoutExtension + relatedSuffix))) {
+            for (val relatedFile : relatedFiles) {
+                val relatedSuffix = relatedFile.substring(oldFilenameWithoutExtension.length());
+                if (moveOut(srcFolder.resolve(relatedFile), folderPath.resolve(newFilenameWithoutExtension + relatedSuffix), null)) {
                     relatedFileSuffixes.add(relatedSuffix);
                 }
             }
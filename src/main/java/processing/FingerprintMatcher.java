@@ -0,0 +1,87 @@
+package processing;
+
+import ed2kHasher.AbstractChecksum;
+import ed2kHasher.Edonkey;
+import ed2kHasher.MD4;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.java.Log;
+import lombok.val;
+import org.jetbrains.annotations.Nullable;
+import processing.cache.FileCache;
+import processing.cache.Fingerprint;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Recognizes files which were processed before under another path by their size and {@link Fingerprint}, so files
+ * moved or renamed by other applications do not have to be hashed again. A match can be confirmed by hashing one
+ * randomly chosen ed2k chunk and comparing it to the chunk hash recorded when the file was hashed.
+ */
+@Log
+@RequiredArgsConstructor
+class FingerprintMatcher {
+    private static final int CHUNK_HASH_LENGTH = 32;
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final FileCache fileCache;
+    private final boolean spotCheck;
+
+    /**
+     * @return the hash of the cached file with the same content, empty if the file has to be hashed
+     */
+    Optional<FileParser.Hash> identify(Path file) {
+        if (!Files.isRegularFile(file)) {
+            return Optional.empty();
+        }
+        try {
+            val size = Files.size(file);
+            val candidate = fileCache.findByFingerprint(size, Fingerprint.of(file));
+            if (candidate.isEmpty()) {
+                return Optional.empty();
+            }
+            val chunkHashes = fileCache.readChunkHashes(candidate.get()).orElse(null);
+            if (spotCheck && !spotCheck(file, size, chunkHashes)) {
+                log.fine(STR."\{file} has the fingerprint of \{candidate.get().path()}, but could not be confirmed");
+                return Optional.empty();
+            }
+            log.info(STR."Recognized \{file} by its fingerprint as \{candidate.get().path()}");
+            return Optional.of(new FileParser.Hash(candidate.get().ed2k(), chunkHashes));
+        } catch (IOException e) {
+            log.fine(STR."Could not fingerprint \{file}: \{e.getMessage()}");
+            return Optional.empty();
+        }
+    }
+
+    private static boolean spotCheck(Path file, long size, @Nullable String chunkHashes) throws IOException {
+        val chunks = (int) ((size + Edonkey.BLOCKSIZE - 1) / Edonkey.BLOCKSIZE);
+        // Files of a single chunk are confirmed by hashing them as usual, which is just as expensive
+        if (chunks < 2 || chunkHashes == null || chunkHashes.length() != chunks * CHUNK_HASH_LENGTH) {
+            return false;
+        }
+        val chunk = ThreadLocalRandom.current().nextInt(chunks);
+        val md4 = new MD4();
+        val buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        try (val channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            var position = (long) chunk * Edonkey.BLOCKSIZE;
+            val end = Math.min(size, position + Edonkey.BLOCKSIZE);
+            while (position < end) {
+                buffer.clear().limit((int) Math.min(BUFFER_SIZE, end - position));
+                val read = channel.read(buffer, position);
+                if (read < 0) {
+                    return false;
+                }
+                md4.update(buffer.array(), 0, read);
+                position += read;
+            }
+        }
+        val expected = chunkHashes.substring(chunk * CHUNK_HASH_LENGTH, (chunk + 1) * CHUNK_HASH_LENGTH);
+        return AbstractChecksum.format(md4.digest(), false).equals(expected);
+    }
+}
@@ -0,0 +1,204 @@
+package processing;
+
+import aniAdd.config.AniConfiguration;
+import lombok.extern.java.Log;
+import lombok.val;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Limits how fast files are read for hashing, so scans do not saturate the disks other applications (i.e. media
+ * players) are streaming from. Every device has its own token bucket, shared by all files hashed from it.
+ * The limit can depend on the time of day and, if adaptive, is halved whenever reads take much longer than they
+ * used to, and raised again slowly while they don't. Hashing can be paused entirely, i.e. during playback.
+ */
+@Log
+public class HashBandwidthGovernor {
+    private static final double MIB = 1024 * 1024;
+    private static final Pattern PROFILE = Pattern.compile("(\\d{1,2}:\\d{2})-(\\d{1,2}:\\d{2})=(\\d+)");
+    // Reads which take this much longer than on average are caused by someone else using the device
+    private static final double LATENCY_FACTOR = 3;
+    private static final double BACKOFF = 0.5;
+    private static final double INCREASE_PER_SECOND = 4 * MIB;
+    private static final double MIN_RATE = MIB;
+    // Reads at the end of a file are too short to say anything about the device
+    private static final int MIN_MEASURED_READ = 64 * 1024;
+
+    private final double defaultLimit;
+    private final List<Profile> profiles;
+    private final boolean adaptive;
+    private final Map<Object, Device> devices = new ConcurrentHashMap<>();
+    private boolean paused;
+
+    /**
+     * @param defaultLimit bytes per second, 0 for no limit
+     */
+    HashBandwidthGovernor(long defaultLimit, List<Profile> profiles, boolean adaptive) {
+        this.defaultLimit = toRate(defaultLimit);
+        this.profiles = profiles;
+        this.adaptive = adaptive;
+    }
+
+    public static HashBandwidthGovernor create(AniConfiguration configuration) {
+        val profiles = new ArrayList<Profile>();
+        for (val schedule : Objects.requireNonNullElse(configuration.getHashBandwidthSchedule(), List.<String>of())) {
+            val matcher = PROFILE.matcher(schedule.replace(" ", ""));
+            if (!matcher.matches()) {
+                log.warning(STR."Ignoring invalid hash bandwidth schedule '\{schedule}', expected i.e. '08:00-23:00=20'");
+                continue;
+            }
+            profiles.add(new Profile(LocalTime.parse(pad(matcher.group(1))), LocalTime.parse(pad(matcher.group(2))),
+                    toRate(Long.parseLong(matcher.group(3)) * (long) MIB)));
+        }
+        return new HashBandwidthGovernor((long) configuration.getHashBandwidthLimitMiB() * (long) MIB, profiles,
+                configuration.isAdaptiveHashBandwidth());
+    }
+
+    private static String pad(String time) {
+        return time.length() == 4 ? "0" + time : time;
+    }
+
+    private static double toRate(long bytesPerSecond) {
+        return bytesPerSecond <= 0 ? Double.POSITIVE_INFINITY : bytesPerSecond;
+    }
+
+    public synchronized void setPaused(boolean paused) {
+        if (this.paused != paused) {
+            log.info(paused ? "Pausing hashing" : "Resuming hashing");
+        }
+        this.paused = paused;
+        notifyAll();
+    }
+
+    private synchronized void waitWhilePaused() throws InterruptedException {
+        while (paused) {
+            wait();
+        }
+    }
+
+    /**
+     * @return the device the file is stored on
+     */
+    public Device getDevice(Path file) {
+        Object key;
+        try {
+            key = Files.getFileStore(file);
+        } catch (IOException e) {
+            key = "unknown";
+        }
+        return devices.computeIfAbsent(key, k -> new Device(k.toString()));
+    }
+
+    private double getLimit() {
+        if (profiles.isEmpty()) {
+            return defaultLimit;
+        }
+        val now = LocalTime.now();
+        for (val profile : profiles) {
+            if (profile.contains(now)) {
+                return profile.limit();
+            }
+        }
+        return defaultLimit;
+    }
+
+    /**
+     * A limit for a time of the day, the range may span midnight
+     */
+    record Profile(LocalTime from, LocalTime to, double limit) {
+        boolean contains(LocalTime time) {
+            return from.isBefore(to)
+                    ? !time.isBefore(from) && time.isBefore(to)
+                    : !time.isBefore(from) || time.isBefore(to);
+        }
+    }
+
+    public class Device {
+        private final String name;
+        // Bytes which may be read right away, negative if readers have to wait for their turn
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+        private double adaptiveRate = Double.POSITIVE_INFINITY;
+        // Nanoseconds per MiB, recent reads and the long term average
+        private double recentLatency = Double.NaN;
+        private double averageLatency = Double.NaN;
+        private long adjustedAt = System.nanoTime();
+
+        private Device(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Waits until the bytes may be read
+         */
+        public void acquire(int bytes) throws InterruptedException {
+            waitWhilePaused();
+            long waitNanos;
+            synchronized (this) {
+                val rate = Math.min(getLimit(), adaptiveRate);
+                val now = System.nanoTime();
+                if (Double.isInfinite(rate)) {
+                    tokens = 0;
+                    refilledAt = now;
+                    return;
+                }
+                // At most a second worth of reading can be saved up
+                tokens = Math.min(tokens + (now - refilledAt) / 1e9 * rate, Math.max(rate, bytes));
+                refilledAt = now;
+                tokens -= bytes;
+                waitNanos = tokens < 0 ? (long) (-tokens / rate * 1e9) : 0;
+            }
+            if (waitNanos > 0) {
+                Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+            }
+        }
+
+        /**
+         * Adjusts the limit of the device to how long reading took
+         */
+        public void completed(int bytes, long nanos) {
+            if (!adaptive || bytes < MIN_MEASURED_READ) {
+                return;
+            }
+            val latency = nanos / (bytes / MIB);
+            synchronized (this) {
+                if (Double.isNaN(recentLatency)) {
+                    recentLatency = latency;
+                    averageLatency = latency;
+                    return;
+                }
+                recentLatency = recentLatency * 0.8 + latency * 0.2;
+                averageLatency = averageLatency * 0.99 + latency * 0.01;
+
+                val now = System.nanoTime();
+                val elapsedSeconds = (now - adjustedAt) / 1e9;
+                if (elapsedSeconds < 1) {
+                    return;
+                }
+                adjustedAt = now;
+                // How fast the device delivers data while it is read
+                val deviceRate = MIB * 1e9 / recentLatency;
+                if (recentLatency > averageLatency * LATENCY_FACTOR) {
+                    adaptiveRate = Math.max(MIN_RATE, Math.min(adaptiveRate, deviceRate) * BACKOFF);
+                    log.fine(STR."Reads from \{name} are slow, limiting hashing to \{(long) (adaptiveRate / MIB)} MiB/s");
+                } else if (!Double.isInfinite(adaptiveRate)) {
+                    adaptiveRate += INCREASE_PER_SECOND * elapsedSeconds;
+                    if (adaptiveRate > deviceRate * 2) {
+                        // The limit does not slow down reading anymore
+                        adaptiveRate = Double.POSITIVE_INFINITY;
+                        log.fine(STR."Reads from \{name} are fast again, no longer limiting hashing");
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package processing;
+
+import aniAdd.config.AniConfiguration.HashOrder;
+import ed2kHasher.Edonkey;
+import lombok.extern.java.Log;
+import lombok.val;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures how fast files are hashed, how much the page cache grows while doing so and how the order of the files
+ * affects the throughput. Also finds the number of files hashed at the same time and the buffer size which hash
+ * fastest on a device.
+ */
+@Log
+public class HashBenchmark {
+    private static final Path MEMINFO = Path.of("/proc/meminfo");
+    private static final int CORPUS_DIRECTORIES = 8;
+    private static final int CORPUS_CHUNK_SIZE = 1024 * 1024;
+    private static final int RAW_READ_BUFFER_SIZE = 16 * 1024 * 1024;
+    // Settings this close to the fastest are as good, the cheaper one is preferred
+    private static final double TUNING_TOLERANCE = 0.05;
+
+    /**
+     * @param directIoUsed    true if at least one file could be read with direct I/O
+     * @param firstHash       time until the first file was hashed
+     * @param pageCacheGrowth growth of the page cache in bytes, empty where it can not be measured
+     */
+    public record Result(boolean directIo, boolean directIoUsed, long bytes, Duration duration, Duration firstHash,
+                         OptionalLong pageCacheGrowth, List<String> hashes) {
+        public double getMibPerSecond() {
+            return bytes / 1024.0 / 1024.0 / Math.max(duration.toNanos(), 1) * 1_000_000_000.0;
+        }
+    }
+
+    /**
+     * @param streams    files read at the same time
+     * @param bufferSize bytes read at once
+     */
+    public record Trial(int streams, int bufferSize, boolean directIoUsed, long bytes, Duration duration) {
+        public double getMibPerSecond() {
+            return bytes / 1024.0 / 1024.0 / Math.max(duration.toNanos(), 1) * 1_000_000_000.0;
+        }
+    }
+
+    public static Result run(List<Path> files, boolean directIo, int bufferSize) throws IOException, NoSuchAlgorithmException {
+        val cachedBefore = getPageCacheSize();
+        val hashes = new ArrayList<String>();
+        var directIoUsed = false;
+        var bytes = 0L;
+        val buffer = new byte[bufferSize];
+        val start = System.nanoTime();
+        var firstHash = Duration.ZERO;
+        for (val file : files) {
+            val ed2k = new Edonkey();
+            try (val reader = HashReader.open(file, 0, bufferSize, directIo)) {
+                directIoUsed |= reader.isDirect();
+                int read;
+                while ((read = reader.read(buffer)) != -1) {
+                    ed2k.update(buffer, 0, read);
+                    bytes += read;
+                }
+            }
+            hashes.add(ed2k.getHexValue());
+            if (hashes.size() == 1) {
+                firstHash = Duration.ofNanos(System.nanoTime() - start);
+            }
+        }
+        val duration = Duration.ofNanos(System.nanoTime() - start);
+        val cachedAfter = getPageCacheSize();
+        val pageCacheGrowth = cachedBefore.isPresent() && cachedAfter.isPresent()
+                ? OptionalLong.of(cachedAfter.getAsLong() - cachedBefore.getAsLong())
+                : OptionalLong.empty();
+        return new Result(directIo, directIoUsed, bytes, duration, firstHash, pageCacheGrowth, hashes);
+    }
+
+    /**
+     * @return how many MiB per second a single core computes the ed2k hash of data already in memory
+     */
+    public static double measureEdonkey(long bytes) throws NoSuchAlgorithmException {
+        val buffer = new byte[CORPUS_CHUNK_SIZE];
+        new Random(42).nextBytes(buffer);
+        val ed2k = new Edonkey();
+        val start = System.nanoTime();
+        for (long hashed = 0; hashed < bytes; hashed += buffer.length) {
+            ed2k.update(buffer, 0, buffer.length);
+        }
+        ed2k.getHexValue();
+        val nanos = Math.max(System.nanoTime() - start, 1);
+        return bytes / 1024.0 / 1024.0 / nanos * 1_000_000_000.0;
+    }
+
+    /**
+     * Reads the files one after another with direct I/O, without hashing them
+     *
+     * @param budget stops after this many bytes
+     */
+    public static Trial measureRead(List<Path> files, long budget) throws IOException {
+        return measure(files, 1, RAW_READ_BUFFER_SIZE, budget, false);
+    }
+
+    /**
+     * Hashes the files with direct I/O, several at the same time
+     *
+     * @param streams    files hashed at the same time
+     * @param bufferSize bytes read at once
+     * @param budget     stops after this many bytes
+     */
+    public static Trial measureHashing(List<Path> files, int streams, int bufferSize, long budget) throws IOException {
+        return measure(files, streams, bufferSize, budget, true);
+    }
+
+    private static Trial measure(List<Path> files, int streams, int bufferSize, long budget, boolean hash) throws IOException {
+        val next = new AtomicInteger();
+        val remaining = new AtomicLong(budget);
+        val bytes = new LongAdder();
+        val directIoUsed = new AtomicBoolean();
+        val executor = Executors.newFixedThreadPool(streams);
+        val start = System.nanoTime();
+        try {
+            val workers = new ArrayList<Future<?>>();
+            for (int i = 0; i < streams; i++) {
+                workers.add(executor.submit(() -> {
+                    val buffer = new byte[bufferSize];
+                    int index;
+                    while (remaining.get() > 0 && (index = next.getAndIncrement()) < files.size()) {
+                        val ed2k = hash ? new Edonkey() : null;
+                        try (val reader = HashReader.open(files.get(index), 0, bufferSize, true)) {
+                            directIoUsed.compareAndSet(false, reader.isDirect());
+                            int read;
+                            while (remaining.get() > 0 && (read = reader.read(buffer)) != -1) {
+                                if (ed2k != null) {
+                                    ed2k.update(buffer, 0, read);
+                                }
+                                bytes.add(read);
+                                remaining.addAndGet(-read);
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (val worker : workers) {
+                worker.get();
+            }
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+        return new Trial(streams, bufferSize, directIoUsed.get(), bytes.sum(), Duration.ofNanos(System.nanoTime() - start));
+    }
+
+    /**
+     * @return the fewest streams and then the smallest buffer which hash about as fast as the fastest trial
+     */
+    public static Trial pick(List<Trial> trials) {
+        val fastest = trials.stream().mapToDouble(Trial::getMibPerSecond).max().orElseThrow();
+        return trials.stream()
+                .filter(trial -> trial.getMibPerSecond() >= fastest * (1 - TUNING_TOLERANCE))
+                .min(Comparator.comparingInt(Trial::streams).thenComparingInt(Trial::bufferSize))
+                .orElseThrow();
+    }
+
+    /**
+     * @return the files grouped by the device, i.e. the {@link FileStore}, they are stored on
+     */
+    public static Map<FileStore, List<Path>> groupByDevice(List<Path> files) throws IOException {
+        val devices = new LinkedHashMap<FileStore, List<Path>>();
+        for (val file : files) {
+            devices.computeIfAbsent(Files.getFileStore(file), _ -> new ArrayList<>()).add(file);
+        }
+        return devices;
+    }
+
+    /**
+     * @param files in the order they were found
+     * @return the files in the order they would be hashed in
+     */
+    public static List<Path> sort(List<Path> files, HashOrder order) {
+        val queue = new HashQueue(order);
+        for (int i = 0; i < files.size(); i++) {
+            queue.add(new FileInfo(files.get(i).toFile(), i));
+        }
+        val sorted = new ArrayList<Path>();
+        Optional<HashQueue.Entry> next;
+        while ((next = queue.poll(_ -> 0)).isPresent()) {
+            sorted.add(next.get().file().getFile().toPath());
+        }
+        return sorted;
+    }
+
+    /**
+     * Writes files of random size into several directories. The files are written a bit at a time in turns, like
+     * parallel downloads, so their data is spread over the disk.
+     *
+     * @return the files in random order, like they are found by a parallel scan
+     */
+    public static List<Path> generateCorpus(Path directory, int fileCount, long totalBytes) throws IOException {
+        val random = new Random(42);
+        val files = new ArrayList<Path>();
+        val sizes = new long[fileCount];
+        for (int i = 0; i < fileCount; i++) {
+            val subdirectory = Files.createDirectories(directory.resolve(STR."show\{i % CORPUS_DIRECTORIES}"));
+            files.add(subdirectory.resolve(STR."episode\{i}.mkv"));
+            sizes[i] = (long) (totalBytes / fileCount * (0.2 + random.nextDouble() * 1.6));
+        }
+
+        val chunk = new byte[CORPUS_CHUNK_SIZE];
+        val outputs = new ArrayList<OutputStream>();
+        try {
+            for (val file : files) {
+                outputs.add(Files.newOutputStream(file));
+            }
+            val written = new long[fileCount];
+            var remaining = true;
+            while (remaining) {
+                remaining = false;
+                for (int i = 0; i < fileCount; i++) {
+                    val length = (int) Math.min(chunk.length, sizes[i] - written[i]);
+                    if (length > 0) {
+                        random.nextBytes(chunk);
+                        outputs.get(i).write(chunk, 0, length);
+                        written[i] += length;
+                        remaining |= written[i] < sizes[i];
+                    }
+                }
+            }
+        } finally {
+            for (val output : outputs) {
+                output.close();
+            }
+        }
+        Collections.shuffle(files, random);
+        return files;
+    }
+
+    /**
+     * @return the size of the page cache of the whole system (Linux only)
+     */
+    private static OptionalLong getPageCacheSize() {
+        if (!Files.isReadable(MEMINFO)) {
+            return OptionalLong.empty();
+        }
+        try (val lines = Files.lines(MEMINFO)) {
+            return lines.filter(line -> line.startsWith("Cached:"))
+                    .mapToLong(line -> Long.parseLong(line.replaceAll("\\D", "")) * 1024)
+                    .findFirst();
+        } catch (IOException | NumberFormatException e) {
+            log.fine(STR."Could not read the page cache size: \{e.getMessage()}");
+            return OptionalLong.empty();
+        }
+    }
+}
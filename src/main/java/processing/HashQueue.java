@@ -0,0 +1,125 @@
+package processing;
+
+import aniAdd.config.AniConfiguration.HashOrder;
+import lombok.extern.java.Log;
+import lombok.val;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.function.ToIntFunction;
+
+/**
+ * Files waiting to be hashed, grouped by the device they are stored on, so every device can be read by its own
+ * sequential stream. Within a device the files are ordered by the {@link HashOrder}: by directory and inode as a
+ * proxy for their location on the disk to avoid seeking, smallest or newest first for early results, or as
+ * they arrived. Devices take turns. Not thread safe.
+ */
+@Log
+class HashQueue {
+    private static final int MAX_CACHED_DIRECTORIES = 4096;
+    private static final String UNKNOWN_DEVICE = "unknown";
+
+    private final Comparator<Entry> order;
+    private final int defaultStreams;
+    private final Map<Object, Integer> streamsByDevice = new HashMap<>();
+    private final Map<Object, PriorityQueue<Entry>> devices = new LinkedHashMap<>();
+    private final Map<Path, Object> deviceOfDirectory = new HashMap<>();
+    private long sequence;
+    private int size;
+
+    HashQueue(HashOrder order) {
+        this(order, 1, Map.of());
+    }
+
+    /**
+     * @param defaultStreams      files hashed at the same time per device
+     * @param streamsByDirectory  files hashed at the same time from the devices of these directories
+     */
+    HashQueue(HashOrder order, int defaultStreams, Map<String, Integer> streamsByDirectory) {
+        this.defaultStreams = Math.max(1, defaultStreams);
+        streamsByDirectory.forEach((directory, streams) -> {
+            try {
+                streamsByDevice.put(Files.getFileStore(Path.of(directory)), Math.max(1, streams));
+            } catch (IOException | InvalidPathException e) {
+                log.warning(STR."Ignoring hash streams of \{directory}: \{e.getMessage()}");
+            }
+        });
+        val arrival = Comparator.comparingLong(Entry::sequence);
+        this.order = switch (order) {
+            case ARRIVAL -> arrival;
+            case DISK_LAYOUT -> Comparator.comparing(Entry::directory).thenComparingLong(Entry::inode).thenComparing(arrival);
+            case SMALLEST_FIRST -> Comparator.comparingLong(Entry::size).thenComparing(arrival);
+            case NEWEST_FIRST -> Comparator.comparingLong(Entry::lastModified).reversed().thenComparing(arrival);
+        };
+    }
+
+    void add(FileInfo fileInfo) {
+        val path = fileInfo.getFile().toPath().toAbsolutePath();
+        val directory = path.getParent();
+        long inode = 0, fileSize = 0, lastModified = 0;
+        try {
+            val attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            fileSize = attributes.size();
+            lastModified = attributes.lastModifiedTime().toMillis();
+            if (Files.getAttribute(path, "unix:ino") instanceof Long ino) {
+                inode = ino;
+            }
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+            // Only the order suffers, hashing reports files which can not be read
+        }
+        val entry = new Entry(fileInfo, getDevice(directory), String.valueOf(directory), inode, fileSize, lastModified, sequence++);
+        devices.computeIfAbsent(entry.device(), _ -> new PriorityQueue<>(order)).add(entry);
+        size++;
+    }
+
+    /**
+     * @param hashing how many files of a device are being hashed
+     * @return the next file of the first device which can take another file, the device goes to the end of the line
+     */
+    Optional<Entry> poll(ToIntFunction<Object> hashing) {
+        for (val device : devices.entrySet()) {
+            if (hashing.applyAsInt(device.getKey()) >= streamsByDevice.getOrDefault(device.getKey(), defaultStreams)) {
+                continue;
+            }
+            val queue = devices.remove(device.getKey());
+            val entry = queue.poll();
+            if (!queue.isEmpty()) {
+                devices.put(entry.device(), queue);
+            }
+            size--;
+            return Optional.of(entry);
+        }
+        return Optional.empty();
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    private Object getDevice(Path directory) {
+        if (directory == null) {
+            return UNKNOWN_DEVICE;
+        }
+        if (deviceOfDirectory.size() >= MAX_CACHED_DIRECTORIES) {
+            deviceOfDirectory.clear();
+        }
+        return deviceOfDirectory.computeIfAbsent(directory, _ -> {
+            try {
+                return Files.getFileStore(directory);
+            } catch (IOException e) {
+                return UNKNOWN_DEVICE;
+            }
+        });
+    }
+
+    /**
+     * @param device where the file is stored, i.e. its {@link java.nio.file.FileStore}
+     */
+    record Entry(FileInfo file, Object device, String directory, long inode, long size, long lastModified,
+                 long sequence) {
+    }
+}
@@ -0,0 +1,134 @@
+package processing;
+
+import lombok.extern.java.Log;
+import lombok.val;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a file sequentially for hashing.
+ * With direct I/O the data bypasses the page cache, so hashing a whole library does not evict the files other
+ * applications on the same machine (i.e. media players or file shares) are using. Direct I/O needs reads of whole
+ * blocks into aligned buffers. Where the file system or the platform does not support it, or a read is rejected,
+ * the file is read normally instead.
+ */
+@Log
+class HashReader implements Closeable {
+    private static final int MIN_BLOCK_SIZE = 4096;
+    // com.sun.nio.file.ExtendedOpenOption.DIRECT, looked up at runtime as it is not part of the standard API
+    @Nullable private static final OpenOption DIRECT = findDirectOption();
+
+    private final Path file;
+    private FileChannel channel;
+    // Aligned buffer for direct reads, null when reading normally
+    @Nullable private ByteBuffer directBuffer;
+    private long position;
+    // Bytes in front of the requested offset which were read to stay aligned
+    private int skip;
+
+    private HashReader(Path file, FileChannel channel, @Nullable ByteBuffer directBuffer, long position, int skip) {
+        this.file = file;
+        this.channel = channel;
+        this.directBuffer = directBuffer;
+        this.position = position;
+        this.skip = skip;
+    }
+
+    /**
+     * @param offset     where to start reading
+     * @param bufferSize bytes read from the file at once
+     * @param directIo   true to try to read without the page cache
+     */
+    static HashReader open(Path file, long offset, int bufferSize, boolean directIo) throws IOException {
+        if (directIo && DIRECT != null) {
+            try {
+                val blockSize = (int) Math.max(MIN_BLOCK_SIZE, Files.getFileStore(file).getBlockSize());
+                val channel = FileChannel.open(file, StandardOpenOption.READ, DIRECT);
+                val alignedSize = (bufferSize + blockSize - 1) / blockSize * blockSize;
+                val buffer = ByteBuffer.allocateDirect(alignedSize + blockSize).alignedSlice(blockSize).limit(0);
+                val alignedOffset = offset / blockSize * blockSize;
+                return new HashReader(file, channel, buffer, alignedOffset, (int) (offset - alignedOffset));
+            } catch (IOException | UnsupportedOperationException e) {
+                log.fine(STR."Direct I/O is not available for \{file}, reading it normally: \{e.getMessage()}");
+            }
+        }
+        return new HashReader(file, FileChannel.open(file, StandardOpenOption.READ), null, offset, 0);
+    }
+
+    @Nullable
+    private static OpenOption findDirectOption() {
+        try {
+            val options = Class.forName("com.sun.nio.file.ExtendedOpenOption").getEnumConstants();
+            for (val option : options) {
+                if (option instanceof OpenOption openOption && "DIRECT".equals(openOption.toString())) {
+                    return openOption;
+                }
+            }
+        } catch (ClassNotFoundException e) {
+            // Not available on this platform
+        }
+        log.fine("Direct I/O is not supported by this Java runtime, files are read normally");
+        return null;
+    }
+
+    /**
+     * @return the number of bytes read into the target or -1 at the end of the file
+     */
+    int read(byte[] target) throws IOException {
+        if (directBuffer == null) {
+            val read = channel.read(ByteBuffer.wrap(target), position);
+            if (read > 0) {
+                position += read;
+            }
+            return read;
+        }
+
+        while (!directBuffer.hasRemaining()) {
+            int read;
+            try {
+                read = channel.read(directBuffer.clear(), position);
+            } catch (IOException e) {
+                // I.e. an unaligned position after a short read
+                log.fine(STR."Direct read of \{file} failed, reading the rest normally: \{e.getMessage()}");
+                fallBack();
+                return read(target);
+            }
+            if (read < 0) {
+                return -1;
+            }
+            position += read;
+            directBuffer.flip();
+            val skipped = Math.min(skip, directBuffer.remaining());
+            directBuffer.position(skipped);
+            skip -= skipped;
+        }
+        val length = Math.min(directBuffer.remaining(), target.length);
+        directBuffer.get(target, 0, length);
+        return length;
+    }
+
+    private void fallBack() throws IOException {
+        channel.close();
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        position += skip;
+        skip = 0;
+        directBuffer = null;
+    }
+
+    boolean isDirect() {
+        return directBuffer != null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -1,10 +1,18 @@
 package processing;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.nio.file.Path;
 
 public interface IFileHandler {
-    boolean renameFile(@NotNull Path from, @NotNull Path to);
+    default boolean renameFile(@NotNull Path from, @NotNull Path to) {
+        return renameFile(from, to, null);
+    }
+
+    /**
+     * @param ed2kHash hash of the file, used to verify it when it has to be copied to another file system
+     */
+    boolean renameFile(@NotNull Path from, @NotNull Path to, @Nullable String ed2kHash);
     void deleteFile(@NotNull Path path);
 }
@@ -0,0 +1,175 @@
+package processing;
+
+import aniAdd.config.AniConfiguration;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.java.Log;
+import lombok.val;
+import processing.cache.CachedFile;
+import processing.cache.FileCache;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Moves already processed files to the location the current configuration (i.e. a changed tag system script)
+ * wants them to be, using the tags stored in the {@link FileCache}. Neither AniDB nor the file content is needed,
+ * the moved files keep the fingerprint they were cached with.
+ * All moves are planned up front, so colliding targets can be reported before anything is moved.
+ */
+@Log
+@RequiredArgsConstructor
+public class LibraryReorganizer {
+    private final AniConfiguration configuration;
+    private final FileCache fileCache;
+    private final FileRenamer fileRenamer;
+
+    public Plan plan() {
+        val plan = new Plan();
+        val targets = new HashMap<Path, Move>();
+        var id = 0;
+        val cachedFiles = new ArrayList<>(fileCache.getFiles());
+        cachedFiles.sort(Comparator.comparing(CachedFile::path));
+        for (val cachedFile : cachedFiles) {
+            val source = Paths.get(cachedFile.path());
+            if (!fileCache.isUnchanged(source.toFile())) {
+                log.fine(STR."File \{source} was moved or modified since it was processed, skipping it");
+                plan.skipped++;
+                continue;
+            }
+            val tags = fileCache.readTags(cachedFile);
+            if (tags.isEmpty()) {
+                plan.skipped++;
+                continue;
+            }
+            val procFile = new FileInfo(source.toFile(), id++);
+            procFile.setConfiguration(configuration);
+            procFile.getData().putAll(tags.get());
+            procFile.setChunkHashes(fileCache.readChunkHashes(cachedFile).orElse(null));
+            procFile.setRefreshedAt(cachedFile.refreshedAt());
+
+            Optional<Path> target;
+            try {
+                target = FileRenamer.getTargetPath(procFile);
+            } catch (Exception e) {
+                log.warning(STR."Could not determine target of \{source}: \{e.getMessage()}");
+                target = Optional.empty();
+            }
+            if (target.isEmpty()) {
+                plan.skipped++;
+                continue;
+            }
+            val targetPath = target.get().toAbsolutePath();
+            if (targetPath.equals(source.toAbsolutePath())) {
+                plan.unchanged++;
+                continue;
+            }
+
+            val move = new Move(procFile, source, targetPath);
+            val other = targets.putIfAbsent(targetPath, move);
+            if (other != null) {
+                plan.collisions.add(new Collision(move, STR."same target as \{other.source()}"));
+            } else {
+                plan.moves.add(move);
+            }
+        }
+
+        // Targets which exist are only fine if the file there is moved away first
+        val sources = new HashSet<Path>();
+        plan.moves.forEach(move -> sources.add(move.source()));
+        plan.moves.removeIf(move -> {
+            if (!sources.contains(move.target()) && Files.exists(move.target())) {
+                plan.collisions.add(new Collision(move, "target already exists"));
+                return true;
+            }
+            return false;
+        });
+        return plan;
+    }
+
+    /**
+     * Executes the moves in parallel. Moves onto the location of a file which is moved itself wait until that
+     * file is gone.
+     */
+    public Result execute(Plan plan, ExecutorService executorService) throws InterruptedException {
+        val moved = new AtomicInteger();
+        val failed = new AtomicInteger();
+        val collisions = new ArrayList<>(plan.collisions);
+        List<Move> pending = new ArrayList<>(plan.moves);
+        while (!pending.isEmpty()) {
+            val pendingSources = new HashSet<Path>();
+            pending.forEach(move -> pendingSources.add(move.source()));
+            val ready = new ArrayList<Callable<Void>>();
+            val waiting = new ArrayList<Move>();
+            for (val move : pending) {
+                if (pendingSources.contains(move.target())) {
+                    waiting.add(move);
+                } else {
+                    ready.add(() -> {
+                        move(move, collisions, moved, failed);
+                        return null;
+                    });
+                }
+            }
+            if (ready.isEmpty()) {
+                // Files which would swap their locations
+                waiting.forEach(move -> collisions.add(new Collision(move, "target is moved in a cycle")));
+                break;
+            }
+            for (val future : executorService.invokeAll(ready)) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    log.severe(STR."Moving failed: \{e.getCause().getMessage()}");
+                    failed.incrementAndGet();
+                }
+            }
+            pending = waiting;
+        }
+        return new Result(moved.get(), failed.get(), collisions);
+    }
+
+    private void move(Move move, List<Collision> collisions, AtomicInteger moved, AtomicInteger failed) {
+        if (Files.exists(move.target())) {
+            // The file which should have been moved away first is still there
+            synchronized (collisions) {
+                collisions.add(new Collision(move, "target already exists"));
+            }
+            return;
+        }
+        if (!fileRenamer.moveFile(move.file(), move.target())) {
+            log.warning(STR."Could not move \{move.source()} to \{move.target()}");
+            failed.incrementAndGet();
+            return;
+        }
+        val fingerprint = fileCache.get(move.source()).map(CachedFile::fingerprint).orElse(null);
+        fileCache.remove(move.source());
+        fileCache.put(move.target(), move.file().getData(), move.file().getChunkHashes(), move.file().getRefreshedAt(), fingerprint);
+        moved.incrementAndGet();
+    }
+
+    public record Move(FileInfo file, Path source, Path target) {
+    }
+
+    public record Collision(Move move, String reason) {
+    }
+
+    public record Result(int moved, int failed, List<Collision> collisions) {
+    }
+
+    @Getter
+    public static class Plan {
+        private final List<Move> moves = new ArrayList<>();
+        private final List<Collision> collisions = new ArrayList<>();
+        // Files which are already at the right location
+        private int unchanged;
+        // Files which were modified since they were processed or whose target could not be determined
+        private int skipped;
+    }
+}
@@ -0,0 +1,174 @@
+package processing;
+
+import com.google.gson.Gson;
+import ed2kHasher.Edonkey;
+import lombok.extern.java.Log;
+import lombok.val;
+import org.jetbrains.annotations.Nullable;
+import processing.cache.CachedFile;
+import processing.cache.FileCache;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * Hashes processed files again and compares them to the ed2k hashes in the {@link FileCache} to detect bit rot.
+ * The library is split into windows by a hash of the path, so the windows stay stable while files are added, and
+ * every run verifies the next window, i.e. one window per night covers the library once a month. The files are read
+ * with direct I/O, so the disk is read instead of the page cache, at a limited rate. The progress is saved every
+ * few files and when the run is interrupted, an interrupted run continues where it stopped. A mismatch is localized to the corrupted ed2k chunks
+ * where the chunk hashes were recorded when the file was processed.
+ */
+@Log
+public class LibraryVerifier {
+    private static final String STATE_FILE = "verify-state.json";
+    private static final int BUFFER_SIZE = 4 * 1024 * 1024;
+    private static final int CHUNK_HASH_LENGTH = 32;
+    // The state lists all verified files of the window, so it is not rewritten after every file
+    private static final int SAVE_EVERY_FILES = 100;
+    private static final Duration SAVE_INTERVAL = Duration.ofMinutes(1);
+
+    private final Gson gson = new Gson();
+    private final FileCache fileCache;
+    private final Path statePath;
+    private final HashBandwidthGovernor governor;
+
+    /**
+     * @param cacheDirectory where the progress is saved
+     * @param bytesPerSecond read limit, 0 for no limit
+     */
+    public LibraryVerifier(FileCache fileCache, Path cacheDirectory, long bytesPerSecond) {
+        this.fileCache = fileCache;
+        this.statePath = cacheDirectory.resolve(STATE_FILE);
+        this.governor = new HashBandwidthGovernor(bytesPerSecond, List.of(), false);
+    }
+
+    public enum Status {OK, CORRUPTED, UNREADABLE, MISSING, MODIFIED}
+
+    /**
+     * @param corruptedChunks offsets of the ed2k chunks which do not match, empty if unknown
+     */
+    public record Finding(String path, Status status, List<Long> corruptedChunks) {
+    }
+
+    /**
+     * @param findings files which are not OK, including the ones found by an interrupted run of the same window
+     */
+    public record Result(int window, int windows, int verified, List<Finding> findings) {
+    }
+
+    private record State(int windows, int window, List<String> done, List<Finding> findings) {
+    }
+
+    /**
+     * Verifies the files of the current window, the next call continues with the next window
+     */
+    public Result verifyNextWindow(int windows) throws IOException, InterruptedException {
+        var state = loadState();
+        if (state == null || state.windows() != windows || state.done() == null || state.findings() == null) {
+            state = new State(windows, state != null ? state.window() % windows : 0, new ArrayList<>(), new ArrayList<>());
+        }
+        val window = state.window();
+        val done = new HashSet<>(state.done());
+        val files = fileCache.getFiles().stream()
+                .filter(file -> Math.floorMod(file.path().hashCode(), windows) == window)
+                .sorted(Comparator.comparing(CachedFile::path))
+                .toList();
+        log.info(STR."Verifying window \{window + 1} of \{windows}: \{files.size()} files, \{done.size()} already verified");
+
+        var verified = 0;
+        var savedAt = System.nanoTime();
+        try {
+            for (val file : files) {
+                if (done.contains(file.path())) {
+                    continue;
+                }
+                val finding = verify(file);
+                if (finding.status() != Status.OK) {
+                    log.warning(STR."\{finding.path()}: \{finding.status()}");
+                    state.findings().add(finding);
+                }
+                state.done().add(file.path());
+                verified++;
+                if (verified % SAVE_EVERY_FILES == 0 || System.nanoTime() - savedAt >= SAVE_INTERVAL.toNanos()) {
+                    saveState(state);
+                    savedAt = System.nanoTime();
+                }
+            }
+        } catch (InterruptedException e) {
+            saveState(state);
+            throw e;
+        }
+        saveState(new State(windows, (window + 1) % windows, new ArrayList<>(), new ArrayList<>()));
+        return new Result(window, windows, verified, state.findings());
+    }
+
+    private Finding verify(CachedFile cachedFile) throws InterruptedException {
+        val path = Path.of(cachedFile.path());
+        FileParser.Hash hash;
+        try {
+            val attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            if (!cachedFile.matches(attributes.size(), attributes.lastModifiedTime().toMillis())) {
+                // Changed on purpose, bit rot does not touch the modification time
+                return new Finding(cachedFile.path(), Status.MODIFIED, List.of());
+            }
+            hash = FileParser.hash(path, null, true, BUFFER_SIZE, governor, () -> false);
+        } catch (NoSuchFileException e) {
+            return new Finding(cachedFile.path(), Status.MISSING, List.of());
+        } catch (IOException | NoSuchAlgorithmException e) {
+            log.severe(STR."Could not read \{path}: \{e.getMessage()}");
+            return new Finding(cachedFile.path(), Status.UNREADABLE, List.of());
+        }
+
+        val chunkHashes = fileCache.readChunkHashes(cachedFile).orElse(null);
+        if (hash.ed2k().equalsIgnoreCase(cachedFile.ed2k())) {
+            if (chunkHashes == null) {
+                // Localizes future mismatches
+                fileCache.readTags(cachedFile).ifPresent(tags -> fileCache.put(path, tags, hash.chunkHashes(), cachedFile.refreshedAt()));
+            }
+            return new Finding(cachedFile.path(), Status.OK, List.of());
+        }
+        return new Finding(cachedFile.path(), Status.CORRUPTED, findCorruptedChunks(chunkHashes, hash.chunkHashes()));
+    }
+
+    private static List<Long> findCorruptedChunks(@Nullable String expected, @Nullable String actual) {
+        if (expected == null || actual == null || expected.length() != actual.length()) {
+            return List.of();
+        }
+        val offsets = new ArrayList<Long>();
+        for (int chunk = 0; chunk * CHUNK_HASH_LENGTH < expected.length(); chunk++) {
+            val start = chunk * CHUNK_HASH_LENGTH;
+            if (!expected.regionMatches(true, start, actual, start, CHUNK_HASH_LENGTH)) {
+                offsets.add((long) chunk * Edonkey.BLOCKSIZE);
+            }
+        }
+        return offsets;
+    }
+
+    @Nullable
+    private State loadState() {
+        if (!Files.exists(statePath)) {
+            return null;
+        }
+        try {
+            return gson.fromJson(Files.readString(statePath), State.class);
+        } catch (IOException | RuntimeException e) {
+            log.warning(STR."Could not read the verification progress \{statePath}, starting over: \{e.getMessage()}");
+            return null;
+        }
+    }
+
+    private void saveState(State state) throws IOException {
+        val tempPath = statePath.resolveSibling(STR."\{STATE_FILE}.tmp");
+        Files.writeString(tempPath, gson.toJson(state), StandardCharsets.UTF_8);
+        Files.move(tempPath, statePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
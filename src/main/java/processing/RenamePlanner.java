@@ -0,0 +1,206 @@
+package processing;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.java.Log;
+import lombok.val;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.time.Duration;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Renames files in batches of the files added within a short window. The targets of a batch are resolved before
+ * anything is moved, every target directory is created once, and files which want the same target are detected in
+ * memory, also against moves of earlier batches which did not finish yet.
+ * Moves run in one lane per pair of source and target file store: moves between the same disks run one after
+ * another, while moves between other disks run in parallel.
+ */
+@Log
+@RequiredArgsConstructor
+public class RenamePlanner {
+    private static final Duration BATCH_WINDOW = Duration.ofSeconds(1);
+
+    private final FileRenamer fileRenamer;
+    private final ScheduledExecutorService executor;
+
+    private final List<Request> pending = new ArrayList<>();
+    private final Map<Lane, ArrayDeque<Move>> lanes = new HashMap<>();
+    // Targets of queued or running moves, which the file system does not know about yet
+    private final Map<Path, Claim> claims = new HashMap<>();
+    private boolean isPlanning;
+
+    /**
+     * Renames the file with the next batch
+     *
+     * @param onDone called with true if the file was renamed or already had the correct name
+     */
+    public synchronized void add(FileInfo procFile, Consumer<Boolean> onDone) {
+        pending.add(new Request(procFile, onDone));
+        if (!isPlanning) {
+            // Files which are added while a batch is planned are part of the next batch
+            isPlanning = true;
+            executor.schedule(this::planBatch, BATCH_WINDOW.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void planBatch() {
+        List<Request> batch;
+        synchronized (this) {
+            batch = new ArrayList<>(pending);
+            pending.clear();
+            isPlanning = false;
+        }
+
+        val moves = new ArrayList<Move>();
+        for (val request : batch) {
+            val procFile = request.file();
+            try {
+                val target = FileRenamer.getTargetPath(procFile);
+                if (target.isEmpty()) {
+                    request.onDone().accept(false);
+                } else if (target.get().toAbsolutePath().equals(procFile.getFile().toPath().toAbsolutePath())) {
+                    log.fine(STR."File \{procFile.getFile().getAbsolutePath()} with Id \{procFile.getId()} does not need renaming.");
+                    request.onDone().accept(true);
+                } else {
+                    moves.add(new Move(request, target.get().toAbsolutePath()));
+                }
+            } catch (Exception ex) {
+                log.severe(STR."Renaming failed for File \{procFile.getFile().getAbsolutePath()} with Id \{procFile.getId()}: \{ex.getMessage()}");
+                request.onDone().accept(false);
+            }
+        }
+        if (moves.isEmpty()) {
+            return;
+        }
+
+        val fileStores = new HashMap<Path, Optional<FileStore>>();
+        for (val move : moves) {
+            fileStores.computeIfAbsent(move.target().getParent(), RenamePlanner::createDirectory);
+        }
+
+        synchronized (this) {
+            for (val move : moves) {
+                var claim = claims.get(move.target());
+                if (claim == null) {
+                    val source = fileStores.computeIfAbsent(move.request().file().getFile().toPath().toAbsolutePath().getParent(), RenamePlanner::getFileStore);
+                    val target = fileStores.get(move.target().getParent());
+                    claim = new Claim(new Lane(source.orElse(null), target.orElse(null)));
+                    claims.put(move.target(), claim);
+                } else {
+                    // Runs after the move which claimed the target, so it finds the file there
+                    log.fine(STR."File \{move.request().file().getFile().getAbsolutePath()} has the same target as another file: \{move.target()}");
+                }
+                claim.moves++;
+                enqueue(claim.lane, move);
+            }
+        }
+    }
+
+    private void enqueue(Lane lane, Move move) {
+        var queue = lanes.get(lane);
+        if (queue != null) {
+            queue.add(move);
+            return;
+        }
+        queue = new ArrayDeque<>();
+        queue.add(move);
+        lanes.put(lane, queue);
+        executor.execute(() -> runLane(lane));
+    }
+
+    private void runLane(Lane lane) {
+        while (true) {
+            Move move;
+            synchronized (this) {
+                move = lanes.get(lane).poll();
+                if (move == null) {
+                    lanes.remove(lane);
+                    return;
+                }
+            }
+
+            val success = execute(move);
+
+            synchronized (this) {
+                val claim = claims.get(move.target());
+                if (--claim.moves == 0) {
+                    claims.remove(move.target());
+                }
+            }
+            try {
+                move.request().onDone().accept(success);
+            } catch (RuntimeException ex) {
+                // The lane has to keep going for the other files
+                log.severe(STR."Finishing the renaming of \{move.target()} failed: \{ex.getMessage()}");
+            }
+        }
+    }
+
+    private boolean execute(Move move) {
+        val procFile = move.request().file();
+        try {
+            if (fileRenamer.exists(move.target())) {
+                fileRenamer.handleDuplicate(procFile, move.target());
+                return false;
+            }
+            if (fileRenamer.moveFile(procFile, move.target())) {
+                return true;
+            }
+            if (fileRenamer.exists(move.target()) && procFile.getFile().exists()) {
+                // Another file took the target while the file was copied there
+                fileRenamer.handleDuplicate(procFile, move.target());
+            }
+            return false;
+        } catch (Exception ex) {
+            log.severe(STR."Renaming failed for File \{procFile.getFile().getAbsolutePath()} with Id \{procFile.getId()}: \{ex.getMessage()}");
+            return false;
+        }
+    }
+
+    private static Optional<FileStore> createDirectory(Path directory) {
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            // Moving the file reports the error
+            log.warning(STR."Could not create directory \{directory}: \{e.getMessage()}");
+        }
+        return getFileStore(directory);
+    }
+
+    private static Optional<FileStore> getFileStore(Path path) {
+        try {
+            return Optional.of(Files.getFileStore(path));
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+    }
+
+    private record Request(FileInfo file, Consumer<Boolean> onDone) {
+    }
+
+    private record Move(Request request, Path target) {
+    }
+
+    /**
+     * Moves between the same file stores. An unknown file store shares the lane of other unknown file stores.
+     */
+    private record Lane(@Nullable FileStore source, @Nullable FileStore target) {
+    }
+
+    private static class Claim {
+        private final Lane lane;
+        // Moves to the claimed target which did not finish yet
+        private int moves;
+
+        private Claim(Lane lane) {
+            this.lane = lane;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package processing;
+
+import ed2kHasher.Edonkey;
+import fileprocessor.WriteCompletionGate;
+import lombok.extern.java.Log;
+import lombok.val;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hashes files which are still being downloaded, one complete ed2k chunk at a time while the data is still
+ * in the page cache. Once the download is done only the remaining data has to be read.
+ * Only works for downloads which write the file sequentially. Files with a control or temporary file of a
+ * download client next to them are not hashed while downloading, and a file is given up as soon as a page of
+ * zeros shows up, as out of order or preallocating writers leave holes which read as zeros.
+ */
+@Log
+public class TailHasher {
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final int PAGE_SIZE = 4096;
+    private static final byte[] ZERO_PAGE = new byte[PAGE_SIZE];
+    // Marks files which are taken for hashing or not hashed while downloading, so late updates do not start over
+    private static final PartialHash DISCARDED = new PartialHash(null, null);
+
+    private final Map<String, PartialHash> hashes = new ConcurrentHashMap<>();
+
+    /**
+     * Hash all chunks of the file which have been completely written since the last update.
+     * Discards the progress if the file vanished or was replaced.
+     */
+    public void update(File file) {
+        val key = file.getAbsolutePath();
+        try {
+            val attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            val partialHash = hashes.computeIfAbsent(key, _ -> PartialHash.create(attributes.fileKey()));
+            if (partialHash == null || partialHash == DISCARDED) {
+                return;
+            }
+            if (WriteCompletionGate.isBeingDownloaded(file)) {
+                log.fine(STR."File \{key} is downloaded by a client which may write out of order, not hashing it while downloading");
+                hashes.put(key, DISCARDED);
+                return;
+            }
+            synchronized (partialHash) {
+                if (hashes.get(key) != partialHash) {
+                    // Taken for hashing or discarded while waiting for the lock
+                    return;
+                }
+                if (!partialHash.isSameFile(attributes)) {
+                    log.fine(STR."File \{key} was replaced while downloading, restarting hash");
+                    hashes.remove(key, partialHash);
+                    return;
+                }
+                val completeChunks = attributes.size() / Edonkey.BLOCKSIZE * Edonkey.BLOCKSIZE;
+                if (completeChunks > partialHash.getOffset()) {
+                    if (!partialHash.hashUntil(file, completeChunks)) {
+                        log.fine(STR."File \{key} has a hole, it is not written sequentially, not hashing it while downloading");
+                        hashes.put(key, DISCARDED);
+                        return;
+                    }
+                    log.finest(STR."Hashed \{completeChunks / Edonkey.BLOCKSIZE} chunks of \{key} while downloading");
+                }
+            }
+        } catch (IOException e) {
+            log.fine(STR."Could not hash \{key} while downloading: \{e.getMessage()}");
+            hashes.remove(key);
+        }
+    }
+
+    /**
+     * @return the hash progress of the file if it is still valid, the progress is forgotten afterwards and the file
+     * is not hashed while downloading anymore until {@link #forget}
+     */
+    public Optional<PartialHash> take(File file) {
+        val partialHash = hashes.put(file.getAbsolutePath(), DISCARDED);
+        if (partialHash == null || partialHash == DISCARDED) {
+            return Optional.empty();
+        }
+        synchronized (partialHash) {
+            try {
+                val attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                return partialHash.isSameFile(attributes) ? Optional.of(partialHash) : Optional.empty();
+            } catch (IOException e) {
+                return Optional.empty();
+            }
+        }
+    }
+
+    /**
+     * Forgets everything about the file, i.e. once it is done
+     */
+    public void forget(File file) {
+        hashes.remove(file.getAbsolutePath());
+    }
+
+    public static class PartialHash {
+        private final Edonkey ed2k;
+        private final Object fileKey;
+        private long offset;
+
+        private PartialHash(Edonkey ed2k, Object fileKey) {
+            this.ed2k = ed2k;
+            this.fileKey = fileKey;
+        }
+
+        private static PartialHash create(Object fileKey) {
+            try {
+                return new PartialHash(new Edonkey(), fileKey);
+            } catch (NoSuchAlgorithmException e) {
+                return null;
+            }
+        }
+
+        public Edonkey getEd2k() {
+            return ed2k;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        private boolean isSameFile(BasicFileAttributes attributes) {
+            return Objects.equals(fileKey, attributes.fileKey()) && attributes.size() >= offset;
+        }
+
+        /**
+         * @return false if a page of zeros was read, the hash is useless then
+         */
+        private boolean hashUntil(File file, long end) throws IOException {
+            try (val channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                val buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                while (offset < end) {
+                    buffer.clear().limit((int) Math.min(BUFFER_SIZE, end - offset));
+                    val read = channel.read(buffer, offset);
+                    if (read <= 0) {
+                        break;
+                    }
+                    if (hasZeroPage(buffer.array(), offset, read)) {
+                        return false;
+                    }
+                    ed2k.update(buffer.array(), 0, read);
+                    offset += read;
+                }
+            }
+            return true;
+        }
+
+        private static boolean hasZeroPage(byte[] data, long position, int length) {
+            var page = (int) Math.floorMod(-position, (long) PAGE_SIZE);
+            for (; page + PAGE_SIZE <= length; page += PAGE_SIZE) {
+                if (Arrays.equals(data, page, page + PAGE_SIZE, ZERO_PAGE, 0, PAGE_SIZE)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
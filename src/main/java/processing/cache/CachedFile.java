@@ -0,0 +1,23 @@
+package processing.cache;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Index entry of a file that has been processed before.
+ *
+ * @param path         absolute path of the file after processing (i.e. after it has been moved)
+ * @param size         size of the file in bytes when it was processed
+ * @param lastModified last modified time in milliseconds when it was processed
+ * @param ed2k         ed2k hash of the file
+ * @param offset       offset of the full record in the cache file, -1 if the cache is not persisted
+ * @param fingerprint  {@link Fingerprint} of the file, null for files cached before fingerprints were recorded
+ * @param refreshedAt  time in milliseconds the AniDB data was received, 0 if unknown
+ * @param airedAt      time in milliseconds the episode aired, 0 if unknown
+ */
+public record CachedFile(String path, long size, long lastModified, String ed2k, long offset, @Nullable String fingerprint,
+                         long refreshedAt, long airedAt) {
+
+    public boolean matches(long size, long lastModified) {
+        return this.size == size && this.lastModified == lastModified;
+    }
+}
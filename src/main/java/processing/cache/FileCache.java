@@ -0,0 +1,349 @@
+package processing.cache;
+
+import com.google.gson.Gson;
+import lombok.extern.java.Log;
+import lombok.val;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import processing.FileInfo;
+import processing.tagsystem.TagSystemTags;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent store of processed files.
+ * Only a small index entry ({@link CachedFile}) is kept in memory per file, the full record (including all
+ * tags received from AniDB) is appended to a json lines file in the configured cache directory and read on demand.
+ * Without a cache directory only the in memory index is kept.
+ * A second index by size and {@link Fingerprint} finds the record of a file which was moved or renamed by someone else,
+ * a third one by ed2k hash and size finds copies of a file.
+ */
+@Log
+public class FileCache implements AutoCloseable {
+    private static final String FILE_NAME = "files.jsonl";
+    private static final int COMPACT_MIN_RECORDS = 1000;
+
+    private final Gson gson = new Gson();
+    private final Map<String, CachedFile> files = new ConcurrentHashMap<>();
+    private final Map<String, CachedFile> fingerprints = new ConcurrentHashMap<>();
+    private final Map<String, CachedFile> hashes = new ConcurrentHashMap<>();
+    @Nullable private final Path storePath;
+    @Nullable private FileChannel channel;
+
+    private FileCache(@Nullable Path storePath) {
+        this.storePath = storePath;
+    }
+
+    public static FileCache inMemory() {
+        return new FileCache(null);
+    }
+
+    public static FileCache open(@Nullable String cacheDirectory) {
+        if (cacheDirectory == null || cacheDirectory.isBlank()) {
+            log.fine("No cache directory configured, processed files are only kept in memory");
+            return inMemory();
+        }
+        val cache = new FileCache(Paths.get(cacheDirectory, FILE_NAME));
+        try {
+            cache.load();
+        } catch (IOException e) {
+            log.severe(STR."Could not open file cache in \{cacheDirectory}: \{e.getMessage()}. Only using memory.");
+            return inMemory();
+        }
+        return cache;
+    }
+
+    public boolean isPersistent() {
+        return channel != null;
+    }
+
+    public Optional<CachedFile> get(@NotNull Path path) {
+        return Optional.ofNullable(files.get(path.toAbsolutePath().toString()));
+    }
+
+    /**
+     * @return true if the file has been processed before and neither size nor modification date changed since
+     */
+    public boolean isUnchanged(@NotNull File file) {
+        val cached = files.get(file.getAbsolutePath());
+        return cached != null && cached.matches(file.length(), file.lastModified());
+    }
+
+    /**
+     * @return a cached file with the same size and fingerprint, it may have been moved since
+     */
+    public Optional<CachedFile> findByFingerprint(long size, @NotNull String fingerprint) {
+        return Optional.ofNullable(fingerprints.get(fingerprintKey(size, fingerprint)));
+    }
+
+    /**
+     * @return a cached file with the same ed2k hash and size, it may have been moved or deleted since
+     */
+    public Optional<CachedFile> findByHash(@NotNull String ed2k, long size) {
+        return Optional.ofNullable(hashes.get(hashKey(ed2k, size)));
+    }
+
+    public Collection<CachedFile> getFiles() {
+        return Collections.unmodifiableCollection(files.values());
+    }
+
+    public int size() {
+        return files.size();
+    }
+
+    public void put(@NotNull FileInfo procFile) {
+        val path = procFile.getRenamedFile() != null ? procFile.getRenamedFile() : procFile.getFile().toPath();
+        put(path, procFile.getData(), procFile.getChunkHashes(), procFile.getRefreshedAt());
+    }
+
+    /**
+     * @param chunkHashes md4 of every ed2k chunk of the file, null if unknown
+     * @param refreshedAt time in milliseconds the AniDB data in the tags was received, 0 if unknown
+     */
+    public void put(@NotNull Path path, @NotNull Map<TagSystemTags, String> tags, @Nullable String chunkHashes, long refreshedAt) {
+        put(path, tags, chunkHashes, refreshedAt, null);
+    }
+
+    /**
+     * @param fingerprint {@link Fingerprint} of the file, i.e. the one of a file it was moved from. If null, the one
+     *                    of the cached file is kept if neither size nor modification date changed, else the content
+     *                    is read to compute it.
+     */
+    public void put(@NotNull Path path, @NotNull Map<TagSystemTags, String> tags, @Nullable String chunkHashes, long refreshedAt,
+                    @Nullable String fingerprint) {
+        val ed2k = tags.get(TagSystemTags.Ed2kHash);
+        if (ed2k == null) {
+            return;
+        }
+        try {
+            val key = path.toAbsolutePath().toString();
+            val attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            val size = attributes.size();
+            val lastModified = attributes.lastModifiedTime().toMillis();
+            if (fingerprint == null) {
+                val cached = files.get(key);
+                fingerprint = cached != null && cached.fingerprint() != null && cached.matches(size, lastModified)
+                        ? cached.fingerprint() : Fingerprint.of(path);
+            }
+            val record = new Record(key, size, lastModified, new EnumMap<>(tags), null, fingerprint, chunkHashes, refreshedAt);
+            val offset = append(record);
+            add(toCachedFile(record, offset));
+        } catch (NoSuchFileException e) {
+            log.fine(STR."File \{path} does not exist anymore, not caching it");
+        } catch (IOException e) {
+            log.warning(STR."Could not cache file \{path}: \{e.getMessage()}");
+        }
+    }
+
+    public void remove(@NotNull Path path) {
+        val key = path.toAbsolutePath().toString();
+        val removed = files.remove(key);
+        if (removed == null) {
+            return;
+        }
+        unindex(removed);
+        try {
+            append(new Record(key, 0, 0, null, true, null, null, null));
+        } catch (IOException e) {
+            log.warning(STR."Could not remove file \{path} from cache: \{e.getMessage()}");
+        }
+    }
+
+    /**
+     * Reads the full record of the cached file from disk
+     *
+     * @return the tags of the file or empty if the cache is not persisted or the record could not be read
+     */
+    public Optional<Map<TagSystemTags, String>> readTags(@NotNull CachedFile cachedFile) {
+        return readRecord(cachedFile).map(Record::tags);
+    }
+
+    /**
+     * Reads the md4 of every ed2k chunk of the cached file from disk
+     *
+     * @return 32 hex digits per chunk or empty if they were not recorded or could not be read
+     */
+    public Optional<String> readChunkHashes(@NotNull CachedFile cachedFile) {
+        return readRecord(cachedFile).map(Record::chunkHashes);
+    }
+
+    private Optional<Record> readRecord(CachedFile cachedFile) {
+        if (cachedFile.offset() < 0 || channel == null) {
+            return Optional.empty();
+        }
+        try {
+            val line = readLineAt(cachedFile.offset());
+            val record = gson.fromJson(line, Record.class);
+            if (record == null || record.tags() == null || !cachedFile.path().equals(record.path())) {
+                return Optional.empty();
+            }
+            return Optional.of(record);
+        } catch (IOException | RuntimeException e) {
+            log.warning(STR."Could not read cache record of \{cachedFile.path()}: \{e.getMessage()}");
+            return Optional.empty();
+        }
+    }
+
+    private void add(CachedFile cachedFile) {
+        val previous = files.put(cachedFile.path(), cachedFile);
+        if (previous != null) {
+            unindex(previous);
+        }
+        if (cachedFile.fingerprint() != null) {
+            fingerprints.put(fingerprintKey(cachedFile.size(), cachedFile.fingerprint()), cachedFile);
+        }
+        hashes.put(hashKey(cachedFile.ed2k(), cachedFile.size()), cachedFile);
+    }
+
+    private void unindex(CachedFile cachedFile) {
+        if (cachedFile.fingerprint() != null) {
+            fingerprints.remove(fingerprintKey(cachedFile.size(), cachedFile.fingerprint()), cachedFile);
+        }
+        hashes.remove(hashKey(cachedFile.ed2k(), cachedFile.size()), cachedFile);
+    }
+
+    private static String hashKey(String ed2k, long size) {
+        return STR."\{ed2k.toLowerCase(Locale.ROOT)}:\{size}";
+    }
+
+    private static String fingerprintKey(long size, String fingerprint) {
+        return STR."\{size}:\{fingerprint}";
+    }
+
+    @Override
+    public synchronized void close() {
+        if (channel != null) {
+            try {
+                channel.force(true);
+                channel.close();
+            } catch (IOException e) {
+                log.warning(STR."Could not close file cache: \{e.getMessage()}");
+            }
+            channel = null;
+        }
+    }
+
+    private synchronized long append(Record record) throws IOException {
+        if (channel == null) {
+            return -1;
+        }
+        val offset = channel.size();
+        val bytes = (gson.toJson(record) + "\n").getBytes(StandardCharsets.UTF_8);
+        val buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, offset + buffer.position());
+        }
+        return offset;
+    }
+
+    private synchronized String readLineAt(long offset) throws IOException {
+        val line = new ByteArrayOutputStream();
+        val buffer = ByteBuffer.allocate(4096);
+        var position = offset;
+        while (channel.read(buffer.clear(), position) > 0) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                val b = buffer.get();
+                if (b == '\n') {
+                    return line.toString(StandardCharsets.UTF_8);
+                }
+                line.write(b);
+            }
+            position += buffer.limit();
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    private void load() throws IOException {
+        Files.createDirectories(storePath.getParent());
+        var records = 0;
+        if (Files.exists(storePath)) {
+            try (val input = new BufferedInputStream(Files.newInputStream(storePath), 1 << 16)) {
+                val line = new ByteArrayOutputStream();
+                long offset = 0;
+                long lineStart = 0;
+                int b;
+                while ((b = input.read()) != -1) {
+                    offset++;
+                    if (b != '\n') {
+                        line.write(b);
+                        continue;
+                    }
+                    records++;
+                    index(line.toString(StandardCharsets.UTF_8), lineStart);
+                    line.reset();
+                    lineStart = offset;
+                }
+            }
+        }
+        log.info(STR."Loaded \{files.size()} cached files from \{storePath}");
+        if (records > COMPACT_MIN_RECORDS && records > 2 * files.size()) {
+            compact();
+        }
+        channel = FileChannel.open(storePath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private void index(String line, long offset) {
+        try {
+            val record = gson.fromJson(line, Record.class);
+            if (record == null || record.path() == null) {
+                return;
+            }
+            if (Boolean.TRUE.equals(record.removed())) {
+                val removed = files.remove(record.path());
+                if (removed != null) {
+                    unindex(removed);
+                }
+            } else if (record.tags() != null && record.tags().get(TagSystemTags.Ed2kHash) != null) {
+                add(toCachedFile(record, offset));
+            }
+        } catch (RuntimeException e) {
+            log.warning(STR."Skipping corrupt cache record at offset \{offset}");
+        }
+    }
+
+    private void compact() throws IOException {
+        log.info(STR."Compacting file cache \{storePath}");
+        val tempPath = storePath.resolveSibling(STR."\{FILE_NAME}.tmp");
+        val compacted = new HashMap<String, CachedFile>();
+        try (val source = FileChannel.open(storePath, StandardOpenOption.READ);
+             val target = new BufferedOutputStream(Files.newOutputStream(tempPath))) {
+            channel = source;
+            long offset = 0;
+            for (val cachedFile : files.values()) {
+                val bytes = (readLineAt(cachedFile.offset()) + "\n").getBytes(StandardCharsets.UTF_8);
+                target.write(bytes);
+                compacted.put(cachedFile.path(), new CachedFile(cachedFile.path(), cachedFile.size(), cachedFile.lastModified(), cachedFile.ed2k(), offset,
+                        cachedFile.fingerprint(), cachedFile.refreshedAt(), cachedFile.airedAt()));
+                offset += bytes.length;
+            }
+        } finally {
+            channel = null;
+        }
+        Files.move(tempPath, storePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        compacted.values().forEach(this::add);
+    }
+
+    private static CachedFile toCachedFile(Record record, long offset) {
+        long airedAt = 0;
+        try {
+            // Seconds since the epoch
+            airedAt = Long.parseLong(record.tags().getOrDefault(TagSystemTags.EpisodeAirDate, "0")) * 1000;
+        } catch (NumberFormatException e) {
+            // Unknown
+        }
+        return new CachedFile(record.path(), record.size(), record.lastModified(), record.tags().get(TagSystemTags.Ed2kHash), offset,
+                record.fingerprint(), Objects.requireNonNullElse(record.refreshedAt(), 0L), airedAt);
+    }
+
+    private record Record(String path, long size, long lastModified, Map<TagSystemTags, String> tags, Boolean removed,
+                          String fingerprint, String chunkHashes, Long refreshedAt) {
+    }
+}
@@ -0,0 +1,42 @@
+package processing.cache;
+
+import lombok.val;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Cheap content fingerprint of a file: the CRC32C of its first, middle and last 64 KiB. Together with the size
+ * it recognizes a file which was moved or renamed by someone else, reading kilobytes instead of the whole file.
+ */
+public final class Fingerprint {
+    private static final int SAMPLE_SIZE = 64 * 1024;
+
+    private Fingerprint() {
+    }
+
+    /**
+     * @return 24 hex digits, 8 per sample
+     */
+    public static String of(Path file) throws IOException {
+        try (val channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            val size = channel.size();
+            val buffer = ByteBuffer.allocate(SAMPLE_SIZE);
+            val fingerprint = new StringBuilder(24);
+            for (val offset : new long[]{0, Math.max(0, size / 2 - SAMPLE_SIZE / 2), Math.max(0, size - SAMPLE_SIZE)}) {
+                buffer.clear();
+                while (buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) > 0) {
+                    // Files smaller than a sample are read entirely
+                }
+                val crc = new CRC32C();
+                crc.update(buffer.flip());
+                fingerprint.append(String.format("%08x", crc.getValue()));
+            }
+            return fingerprint.toString();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package processing.tagsystem;
+
+/**
+ * State of a single evaluation of a script. Compiled scripts are immutable, everything which changes while a
+ * script is evaluated lives here, so a script can be evaluated by several threads at once.
+ */
+class Evaluation {
+    private final TagFunction[] functions;
+    private int depth;
+
+    Evaluation(int functionCount) {
+        functions = new TagFunction[functionCount];
+    }
+
+    TagFunction getFunction(int slot) {
+        return functions[slot];
+    }
+
+    void define(int slot, TagFunction function) {
+        functions[slot] = function;
+    }
+
+    /**
+     * @return the number of nested function calls including this one
+     */
+    int enterFunction() {
+        return ++depth;
+    }
+
+    void leaveFunction() {
+        depth--;
+    }
+}
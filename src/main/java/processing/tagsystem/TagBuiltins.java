@@ -0,0 +1,130 @@
+package processing.tagsystem;
+
+import aniAdd.misc.Misc;
+import lombok.val;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static java.util.Map.entry;
+
+/**
+ * Functions which are available in every script
+ */
+final class TagBuiltins {
+    private static final Map<String, Builtin> BUILTINS = Map.ofEntries(
+            entry("pad", params -> {
+                checkCount(params.size() == 3);
+                int padCount = Integer.parseInt(params.get(1));
+                char padChar = params.get(2).charAt(0);
+                return Misc.stringPadding(params.get(0), padCount, padChar);
+            }),
+            entry("max", params -> {
+                checkCount(params.size() == 2);
+                return String.valueOf(Math.max(Integer.parseInt(params.get(0)), Integer.parseInt(params.get(1))));
+            }),
+            entry("min", params -> {
+                checkCount(params.size() == 2);
+                return String.valueOf(Math.min(Integer.parseInt(params.get(0)), Integer.parseInt(params.get(1))));
+            }),
+            entry("len", params -> {
+                checkCount(params.size() == 1);
+                return String.valueOf(params.get(0).length());
+            }),
+            entry("uc", params -> {
+                checkCount(params.size() == 1);
+                return params.get(0).toUpperCase();
+            }),
+            entry("lc", params -> {
+                checkCount(params.size() == 1);
+                return params.get(0).toLowerCase();
+            }),
+            entry("add", params -> {
+                checkCount(params.size() == 2);
+                return String.valueOf(Integer.parseInt(params.get(0)) + Integer.parseInt(params.get(1)));
+            }),
+            entry("sub", params -> {
+                checkCount(params.size() == 2);
+                return String.valueOf(Integer.parseInt(params.get(0)) - Integer.parseInt(params.get(1)));
+            }),
+            entry("mul", params -> {
+                checkCount(params.size() == 2);
+                return String.valueOf(Integer.parseInt(params.get(0)) * Integer.parseInt(params.get(1)));
+            }),
+            entry("div", params -> {
+                checkCount(params.size() == 2);
+                return String.valueOf(Integer.parseInt(params.get(0)) / Integer.parseInt(params.get(1)));
+            }),
+            entry("substr", params -> {
+                checkCount(params.size() == 2 || params.size() == 3);
+                String value = params.get(0);
+                int begin = Integer.parseInt(params.get(1));
+                return params.size() == 2 ? value.substring(begin) : value.substring(begin, Integer.parseInt(params.get(2)));
+            }),
+            entry("repl", params -> {
+                checkCount(params.size() == 3);
+                return replace(TagRegex.getPattern(params.get(1)), params);
+            }),
+            entry("match", params -> {
+                checkCount(params.size() == 2);
+                return match(TagRegex.getPattern(params.get(1)), params);
+            }),
+            entry("indexof", params -> {
+                checkCount(params.size() == 2);
+                return String.valueOf(params.get(0).indexOf(params.get(1)));
+            }),
+            entry("lindexof", params -> {
+                checkCount(params.size() == 2);
+                return String.valueOf(params.get(0).lastIndexOf(params.get(1)));
+            })
+    );
+
+    private TagBuiltins() {
+    }
+
+    /**
+     * @return the function with this name, specialised for the arguments if possible
+     */
+    @Nullable
+    static Builtin get(String name, TagExpression[] arguments) {
+        if ((name.equals("repl") || name.equals("match")) && arguments.length > 1
+                && arguments[1] instanceof TagExpression.Constant(String regex)) {
+            try {
+                val pattern = TagRegex.compile(regex);
+                return name.equals("repl")
+                        ? params -> {
+                            checkCount(params.size() == 3);
+                            return replace(pattern, params);
+                        }
+                        : params -> {
+                            checkCount(params.size() == 2);
+                            return match(pattern, params);
+                        };
+            } catch (Exception ex) {
+                // The generic function reports the invalid pattern when it is called
+            }
+        }
+        return BUILTINS.get(name);
+    }
+
+    private static String replace(Pattern pattern, List<String> params) {
+        return pattern.matcher(params.get(0)).replaceAll(params.get(2));
+    }
+
+    private static String match(Pattern pattern, List<String> params) {
+        return pattern.matcher(params.get(0)).matches() ? "1" : "";
+    }
+
+    private static void checkCount(boolean isValid) throws Exception {
+        if (!isValid) {
+            throw new Exception("Invalid Parameter count");
+        }
+    }
+
+    @FunctionalInterface
+    interface Builtin {
+        String apply(List<String> params) throws Exception;
+    }
+}
@@ -0,0 +1,117 @@
+package processing.tagsystem;
+
+import lombok.val;
+
+import java.util.BitSet;
+
+/**
+ * Finds the statements of a script an output variable depends on and the input variables they read.
+ * Function bodies see the variables of their caller, so calling a function defined by the script is treated as
+ * reading every variable any function body reads.
+ */
+class TagDependencies {
+    private final TagStatement[] statements;
+    private final BitSet[] reads;
+    private final BitSet[] writes;
+
+    TagDependencies(TagStatement[] statements) {
+        this.statements = statements;
+        reads = new BitSet[statements.length];
+        writes = new BitSet[statements.length];
+
+        val definedFunctions = new BitSet();
+        val functionReads = new BitSet();
+        for (val statement : statements) {
+            if (getDefinition(statement) instanceof TagStatement.Define define) {
+                definedFunctions.set(define.functionSlot());
+                collectReads(define.function().body(), functionReads, new BitSet());
+            }
+        }
+        for (int i = 0; i < statements.length; i++) {
+            reads[i] = new BitSet();
+            writes[i] = new BitSet();
+            val calledFunctions = new BitSet();
+            collect(statements[i], reads[i], writes[i], calledFunctions);
+            if (calledFunctions.intersects(definedFunctions)) {
+                reads[i].or(functionReads);
+            }
+        }
+    }
+
+    /**
+     * @param isTarget statements which are needed in any case
+     * @param needed   variables which are needed after the last statement
+     */
+    Slice slice(boolean[] isTarget, BitSet needed) {
+        needed = (BitSet) needed.clone();
+        val included = new boolean[statements.length];
+        for (int i = statements.length - 1; i >= 0; i--) {
+            if (isTarget[i] || writes[i].intersects(needed) || getDefinition(statements[i]) != null) {
+                included[i] = true;
+                needed.andNot(writes[i]);
+                needed.or(reads[i]);
+            }
+        }
+        return new Slice(included, needed);
+    }
+
+    /**
+     * @param statements statements to execute
+     * @param inputs     variables whose value before the first statement is used
+     */
+    record Slice(boolean[] statements, BitSet inputs) {
+    }
+
+    private static TagStatement.Define getDefinition(TagStatement statement) {
+        return switch (statement) {
+            case TagStatement.Define define -> define;
+            case TagStatement.AssignResult assignResult -> getDefinition(assignResult.statement());
+            default -> null;
+        };
+    }
+
+    private static void collect(TagStatement statement, BitSet reads, BitSet writes, BitSet calledFunctions) {
+        switch (statement) {
+            case TagStatement.Assign assign -> {
+                writes.set(assign.slot());
+                collectReads(assign.value(), reads, calledFunctions);
+            }
+            case TagStatement.AssignResult assignResult -> {
+                writes.set(assignResult.slot());
+                collect(assignResult.statement(), reads, writes, calledFunctions);
+            }
+            case TagStatement.Failure failure -> collectReads(failure.failure(), reads, calledFunctions);
+            default -> {
+            }
+        }
+    }
+
+    private static void collectReads(TagExpression expression, BitSet reads, BitSet calledFunctions) {
+        switch (expression) {
+            case TagExpression.Variable variable -> reads.set(variable.slot());
+            case TagExpression.Call call -> {
+                calledFunctions.set(call.functionSlot());
+                collectReads(call.arguments(), reads, calledFunctions);
+            }
+            case TagExpression.Concat concat -> collectReads(concat.parts(), reads, calledFunctions);
+            case TagExpression.Choose choose -> collectReads(choose.options(), reads, calledFunctions);
+            case TagExpression.Condition condition -> {
+                collectReads(condition.left(), reads, calledFunctions);
+                if (condition.right() != null) {
+                    collectReads(condition.right(), reads, calledFunctions);
+                }
+                collectReads(condition.trueValue(), reads, calledFunctions);
+                collectReads(condition.falseValue(), reads, calledFunctions);
+            }
+            case TagExpression.Failure failure -> collectReads(failure.evaluatedBefore(), reads, calledFunctions);
+            default -> {
+            }
+        }
+    }
+
+    private static void collectReads(TagExpression[] expressions, BitSet reads, BitSet calledFunctions) {
+        for (val expression : expressions) {
+            collectReads(expression, reads, calledFunctions);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package processing.tagsystem;
+
+import lombok.val;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiled expression of the tag system. Expressions are evaluated strictly from left to right like the
+ * interpreter did, so scripts fail with the same error at the same position.
+ */
+interface TagExpression {
+    String evaluate(Evaluation evaluation, String[] vars) throws TagSystemException;
+
+    static TagExpression concat(List<TagExpression> parts) {
+        val merged = new ArrayList<TagExpression>();
+        for (val part : parts) {
+            if (part instanceof Constant constant && !merged.isEmpty() && merged.getLast() instanceof Constant previous) {
+                merged.set(merged.size() - 1, new Constant(previous.value() + constant.value()));
+            } else {
+                merged.add(part);
+            }
+        }
+        return switch (merged.size()) {
+            case 0 -> new Constant("");
+            case 1 -> merged.getFirst();
+            default -> new Concat(merged.toArray(TagExpression[]::new));
+        };
+    }
+
+    record Constant(String value) implements TagExpression {
+        @Override
+        public String evaluate(Evaluation evaluation, String[] vars) {
+            return value;
+        }
+    }
+
+    record Variable(int slot) implements TagExpression {
+        @Override
+        public String evaluate(Evaluation evaluation, String[] vars) {
+            val value = vars[slot];
+            return value == null ? "" : value;
+        }
+    }
+
+    record Concat(TagExpression[] parts) implements TagExpression {
+        @Override
+        public String evaluate(Evaluation evaluation, String[] vars) throws TagSystemException {
+            val builder = new StringBuilder();
+            for (val part : parts) {
+                builder.append(part.evaluate(evaluation, vars));
+            }
+            return builder.toString();
+        }
+    }
+
+    /**
+     * Returns the first non empty option, all options are evaluated
+     */
+    record Choose(TagExpression[] options) implements TagExpression {
+        @Override
+        public String evaluate(Evaluation evaluation, String[] vars) throws TagSystemException {
+            var value = "";
+            for (val option : options) {
+                val optionValue = option.evaluate(evaluation, vars);
+                if (value.isEmpty()) {
+                    value = optionValue;
+                }
+            }
+            return value;
+        }
+    }
+
+    record Condition(TagExpression left, @Nullable TagExpression right, TagExpression trueValue,
+                     TagExpression falseValue) implements TagExpression {
+        @Override
+        public String evaluate(Evaluation evaluation, String[] vars) throws TagSystemException {
+            val leftValue = left.evaluate(evaluation, vars);
+            val rightValue = right == null ? null : right.evaluate(evaluation, vars);
+            val trueResult = trueValue.evaluate(evaluation, vars);
+            val falseResult = falseValue.evaluate(evaluation, vars);
+            return (!leftValue.isEmpty() && rightValue == null) || leftValue.equals(rightValue) ? trueResult : falseResult;
+        }
+    }
+
+    /**
+     * Calls a function defined by the script or a built-in function. Any error of the call is reported at the
+     * end of the call in the script.
+     *
+     * @param functionSlot slot of the script function with this name, -1 if the script does not define it
+     */
+    record Call(String name, int functionSlot, @Nullable TagBuiltins.Builtin builtin, TagExpression[] arguments,
+                int line, int column) implements TagExpression {
+        @Override
+        public String evaluate(Evaluation evaluation, String[] vars) throws TagSystemException {
+            val params = new ArrayList<String>(arguments.length);
+            for (val argument : arguments) {
+                params.add(argument.evaluate(evaluation, vars));
+            }
+            try {
+                val function = functionSlot < 0 ? null : evaluation.getFunction(functionSlot);
+                if (function != null) {
+                    return function.invoke(evaluation, vars, params);
+                } else if (builtin != null) {
+                    return builtin.apply(params);
+                }
+                throw new Exception("No such functionname");
+            } catch (Exception ex) {
+                throw new TagSystemException(ex.getMessage() == null ? "Function threw an error" : ex.getMessage(), line, column);
+            }
+        }
+    }
+
+    /**
+     * Part of the script which could not be parsed. The expressions before the error are evaluated first,
+     * since they could fail as well.
+     */
+    record Failure(TagExpression[] evaluatedBefore, String message, int line, int column) implements TagExpression {
+        @Override
+        public String evaluate(Evaluation evaluation, String[] vars) throws TagSystemException {
+            for (val expression : evaluatedBefore) {
+                expression.evaluate(evaluation, vars);
+            }
+            throw new TagSystemException(message, line, column);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package processing.tagsystem;
+
+import lombok.val;
+
+import java.util.List;
+
+/**
+ * Function defined by a script. The body sees all variables of the caller in addition to its parameters.
+ */
+record TagFunction(int[] parameterSlots, TagExpression body) {
+    private static final int MAX_DEPTH = 20;
+
+    String invoke(Evaluation evaluation, String[] callerVars, List<String> params) throws Exception {
+        if (params.size() != parameterSlots.length) {
+            throw new Exception("Parameter count missmatch");
+        }
+        val vars = callerVars.clone();
+        for (int i = 0; i < parameterSlots.length; i++) {
+            vars[parameterSlots[i]] = params.get(i);
+        }
+
+        val depth = evaluation.enterFunction();
+        if (depth >= MAX_DEPTH) {
+            throw new Exception(depth + ". function call. Aborted");
+        }
+        val result = body.evaluate(evaluation, vars);
+        evaluation.leaveFunction();
+        return result;
+    }
+}
@@ -0,0 +1,205 @@
+package processing.tagsystem;
+
+import lombok.val;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Regular expressions of the $repl and $match functions.
+ * Patterns which are built while evaluating a script are kept in a small LRU cache, constant patterns are
+ * compiled with the script.
+ */
+final class TagRegex {
+    private static final int MAX_CACHED_PATTERNS = 256;
+    private static final Map<String, Pattern> patterns = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Pattern> eldest) {
+            return size() > MAX_CACHED_PATTERNS;
+        }
+    });
+
+    private TagRegex() {
+    }
+
+    static Pattern getPattern(String regex) throws Exception {
+        val cached = patterns.get(regex);
+        if (cached != null) {
+            return cached;
+        }
+        val pattern = compile(regex);
+        patterns.put(regex, pattern);
+        return pattern;
+    }
+
+    static Pattern compile(String regex) throws Exception {
+        if (hasNestedUnboundedQuantifier(regex)) {
+            throw new Exception(STR."Pattern could cause catastrophic backtracking (nested unbounded quantifiers): \{regex}");
+        }
+        return Pattern.compile(regex);
+    }
+
+    /**
+     * Finds groups which repeat a single unbounded atom with an unbounded quantifier, i.e. (a+)+ or (.*)*.
+     * Nothing separates the iterations, so text which almost matches can be split between them in exponentially
+     * many ways. Groups with anything else in them are accepted, like (\[[^\]]*\]\s*)+.
+     */
+    static boolean hasNestedUnboundedQuantifier(String regex) {
+        val groups = new ArrayDeque<Group>();
+        var current = new Group(false);
+        for (int i = 0; i < regex.length(); i++) {
+            switch (regex.charAt(i)) {
+                case '\\' -> {
+                    i++;
+                    current.addAtom(false);
+                }
+                case '[' -> {
+                    i = skipCharacterClass(regex, i);
+                    current.addAtom(false);
+                }
+                case '|' -> current.hasAlternatives = true;
+                case '(' -> {
+                    val prefixEnd = skipGroupPrefix(regex, i);
+                    if (regex.charAt(prefixEnd) == ')') {
+                        // Inline flags like (?i)
+                        i = prefixEnd;
+                        break;
+                    }
+                    groups.push(current);
+                    current = new Group(regex.startsWith("(?>", i));
+                    i = prefixEnd;
+                }
+                case ')' -> {
+                    if (groups.isEmpty()) {
+                        break;
+                    }
+                    val closed = current;
+                    current = groups.pop();
+                    val repeatsUnboundedAtom = closed.isSingleUnboundedAtom();
+                    val quantifier = Quantifier.parse(regex, i + 1);
+                    if (repeatsUnboundedAtom && quantifier != null && quantifier.isUnbounded()) {
+                        return true;
+                    }
+                    current.addAtom(repeatsUnboundedAtom);
+                }
+                default -> {
+                    val quantifier = Quantifier.parse(regex, i);
+                    if (quantifier != null) {
+                        current.quantify(quantifier.isUnbounded());
+                        i = quantifier.end() - 1;
+                    } else {
+                        current.addAtom(false);
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the index of the last character of the group prefix, i.e. of ':' in (?:, or of '(' for a plain group
+     */
+    private static int skipGroupPrefix(String regex, int start) {
+        if (!regex.startsWith("(?", start) || start + 2 >= regex.length()) {
+            return start;
+        }
+        val c = regex.charAt(start + 2);
+        if (c == '<' && start + 3 < regex.length() && (regex.charAt(start + 3) == '=' || regex.charAt(start + 3) == '!')) {
+            return start + 3;
+        }
+        if (c == '<') {
+            val end = regex.indexOf('>', start);
+            return end < 0 ? regex.length() - 1 : end;
+        }
+        int i = start + 2;
+        while (i < regex.length() && (Character.isLetter(regex.charAt(i)) || regex.charAt(i) == '-')) {
+            i++;
+        }
+        return Math.min(i, regex.length() - 1);
+    }
+
+    private static int skipCharacterClass(String regex, int start) {
+        int i = start + 1;
+        if (i < regex.length() && regex.charAt(i) == '^') {
+            i++;
+        }
+        if (i < regex.length() && regex.charAt(i) == ']') {
+            i++;
+        }
+        int depth = 1;
+        for (; i < regex.length(); i++) {
+            val c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '[') {
+                depth++;
+            } else if (c == ']' && --depth == 0) {
+                return i;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * @param end         index after the quantifier including its lazy or possessive suffix
+     * @param isUnbounded true if the quantifier allows any number of repetitions and can backtrack
+     */
+    private record Quantifier(int end, boolean isUnbounded) {
+        private static Quantifier parse(String regex, int index) {
+            if (index >= regex.length()) {
+                return null;
+            }
+            int end;
+            boolean isUnbounded;
+            val c = regex.charAt(index);
+            if (c == '*' || c == '+') {
+                end = index + 1;
+                isUnbounded = true;
+            } else if (c == '?') {
+                end = index + 1;
+                isUnbounded = false;
+            } else if (c == '{') {
+                end = regex.indexOf('}', index);
+                if (end < 0 || !regex.substring(index + 1, end).matches("\\d+(,\\d*)?")) {
+                    return null;
+                }
+                isUnbounded = regex.charAt(end - 1) == ',';
+                end++;
+            } else {
+                return null;
+            }
+            if (end < regex.length() && (regex.charAt(end) == '+' || regex.charAt(end) == '?')) {
+                isUnbounded &= regex.charAt(end) == '?';
+                end++;
+            }
+            return new Quantifier(end, isUnbounded);
+        }
+    }
+
+    private static class Group {
+        private final boolean isAtomic;
+        private boolean hasAlternatives;
+        private int atoms;
+        private boolean isLastAtomUnbounded;
+
+        private Group(boolean isAtomic) {
+            this.isAtomic = isAtomic;
+        }
+
+        private void addAtom(boolean isUnbounded) {
+            atoms++;
+            isLastAtomUnbounded = isUnbounded;
+        }
+
+        private void quantify(boolean isUnbounded) {
+            isLastAtomUnbounded |= isUnbounded;
+        }
+
+        private boolean isSingleUnboundedAtom() {
+            return !isAtomic && !hasAlternatives && atoms == 1 && isLastAtomUnbounded;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package processing.tagsystem;
+
+import lombok.val;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Compiled tag system script, see {@link TagSystem#Compile(String)}.
+ * The script is immutable and can be shared between threads.
+ * The results are memoised by the values of the tags they depend on, i.e. the path of a series is only
+ * evaluated once for all its episodes. Only the statements needed for results which are not memoised are executed.
+ */
+public class TagScript {
+    private static final int MAX_MEMOISED_RESULTS = 1024;
+    private static final Set<String> TAG_NAMES = Arrays.stream(TagSystemTags.values()).map(TagSystemTags::getTag).collect(Collectors.toSet());
+
+    private final Map<String, Integer> variableSlots;
+    private final int functionCount;
+    private final TagStatement[] statements;
+    private final Output pathName;
+    private final Output fileName;
+    // Statements which are not needed for any result, they are still executed because they could fail
+    private final Output other;
+
+    TagScript(Map<String, Integer> variableSlots, int functionCount, TagStatement[] statements, int pathNameSlot, int fileNameSlot) {
+        this.variableSlots = Map.copyOf(variableSlots);
+        this.functionCount = functionCount;
+        this.statements = statements;
+
+        val tagSlots = new BitSet();
+        variableSlots.forEach((name, slot) -> {
+            if (TAG_NAMES.contains(name)) {
+                tagSlots.set(slot);
+            }
+        });
+        val dependencies = new TagDependencies(statements);
+        val noTargets = new boolean[statements.length];
+        this.pathName = new Output(pathNameSlot, dependencies.slice(noTargets, bitSetOf(pathNameSlot)), tagSlots);
+        this.fileName = new Output(fileNameSlot, dependencies.slice(noTargets, bitSetOf(fileNameSlot)), tagSlots);
+        val remaining = new boolean[statements.length];
+        for (int i = 0; i < statements.length; i++) {
+            remaining[i] = !pathName.statements[i] && !fileName.statements[i];
+        }
+        this.other = new Output(-1, dependencies.slice(remaining, new BitSet()), tagSlots);
+    }
+
+    public TagSystemResult Evaluate(Map<TagSystemTags, String> tags) throws Exception {
+        val vars = new String[variableSlots.size()];
+        for (val entry : tags.entrySet()) {
+            // Tags which are not used by the script have no slot
+            val slot = variableSlots.get(entry.getKey().getTag());
+            if (slot != null) {
+                vars[slot] = entry.getValue() == null ? "" : entry.getValue();
+            }
+        }
+
+        val pathNameKey = pathName.getKey(vars);
+        val fileNameKey = fileName.getKey(vars);
+        val otherKey = other.getKey(vars);
+        val memoisedPathName = pathName.results.get(pathNameKey);
+        val memoisedFileName = fileName.results.get(fileNameKey);
+        val isOtherChecked = other.results.containsKey(otherKey);
+        if (memoisedPathName != null && memoisedFileName != null && isOtherChecked) {
+            return new TagSystemResult(memoisedPathName.orElse(null), memoisedFileName.orElse(null));
+        }
+
+        val execute = new boolean[statements.length];
+        if (memoisedPathName == null) {
+            pathName.include(execute);
+        }
+        if (memoisedFileName == null) {
+            fileName.include(execute);
+        }
+        if (!isOtherChecked) {
+            other.include(execute);
+        }
+        val evaluation = new Evaluation(functionCount);
+        try {
+            for (int i = 0; i < statements.length; i++) {
+                if (execute[i]) {
+                    statements[i].execute(evaluation, vars);
+                }
+            }
+        } catch (TagSystemException ex) {
+            throw new Exception(ex.getMessage() + " | Error at Row: " + (ex.getLine() + 1) + " Column: " + (ex.getColumn() + 1));
+        }
+
+        if (!isOtherChecked) {
+            other.results.put(otherKey, Optional.empty());
+        }
+        return new TagSystemResult(
+                memoisedPathName != null ? memoisedPathName.orElse(null) : pathName.memoise(pathNameKey, vars),
+                memoisedFileName != null ? memoisedFileName.orElse(null) : fileName.memoise(fileNameKey, vars));
+    }
+
+    private static BitSet bitSetOf(int slot) {
+        val bitSet = new BitSet();
+        bitSet.set(slot);
+        return bitSet;
+    }
+
+    private static class Output {
+        private final int slot;
+        private final boolean[] statements;
+        private final int[] inputSlots;
+        private final Map<List<String>, Optional<String>> results = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<String>, Optional<String>> eldest) {
+                return size() > MAX_MEMOISED_RESULTS;
+            }
+        });
+
+        private Output(int slot, TagDependencies.Slice slice, BitSet tagSlots) {
+            this.slot = slot;
+            this.statements = slice.statements();
+            // Variables which are not tags are always empty before the first statement
+            val inputs = (BitSet) slice.inputs().clone();
+            inputs.and(tagSlots);
+            this.inputSlots = inputs.stream().toArray();
+        }
+
+        private List<String> getKey(String[] vars) {
+            val key = new String[inputSlots.length];
+            for (int i = 0; i < inputSlots.length; i++) {
+                key[i] = vars[inputSlots[i]];
+            }
+            return Arrays.asList(key);
+        }
+
+        private void include(boolean[] execute) {
+            for (int i = 0; i < statements.length; i++) {
+                execute[i] |= statements[i];
+            }
+        }
+
+        private String memoise(List<String> key, String[] vars) {
+            val value = vars[slot];
+            results.put(key, Optional.ofNullable(value));
+            return value;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package processing.tagsystem;
+
+import lombok.val;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Compiled line of a script
+ */
+interface TagStatement {
+    /**
+     * @return the assigned value, null for function definitions and assignments of assignments
+     */
+    @Nullable
+    String execute(Evaluation evaluation, String[] vars) throws TagSystemException;
+
+    record Assign(int slot, TagExpression value) implements TagStatement {
+        @Override
+        public String execute(Evaluation evaluation, String[] vars) throws TagSystemException {
+            val result = value.evaluate(evaluation, vars);
+            vars[slot] = result;
+            return result;
+        }
+    }
+
+    /**
+     * Assigns the result of another assignment, i.e. {@code A:=B:="value"}. Like the interpreter an assignment of
+     * an assignment results in null, so in {@code A:=B:=C:="value"} A is null.
+     */
+    record AssignResult(int slot, TagStatement statement) implements TagStatement {
+        @Override
+        public String execute(Evaluation evaluation, String[] vars) throws TagSystemException {
+            vars[slot] = statement.execute(evaluation, vars);
+            return null;
+        }
+    }
+
+    record Define(int functionSlot, TagFunction function) implements TagStatement {
+        @Override
+        public String execute(Evaluation evaluation, String[] vars) {
+            evaluation.define(functionSlot, function);
+            return null;
+        }
+    }
+
+    record Failure(TagExpression failure) implements TagStatement {
+        @Override
+        public String execute(Evaluation evaluation, String[] vars) throws TagSystemException {
+            failure.evaluate(evaluation, vars);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package processing.tagsystem;
+
+import lombok.val;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles a script into a {@link TagScript}. Variables and functions are resolved to slots, so evaluating a
+ * script does not need any lookups by name.
+ * Syntax errors are not thrown while compiling, they become part of the script and fail the evaluation when
+ * it reaches them, after everything in front of them has been evaluated like the interpreter did.
+ */
+class TagSystemCompiler {
+    private static final char[] delimiters = new char[]{',', ')', ']', '}', '=', '?', ':'};
+
+    private final Map<String, Integer> variableSlots = new HashMap<>();
+    private final Map<String, Integer> functionSlots = new HashMap<>();
+
+    static TagScript Compile(String sourceCode) {
+        val compiler = new TagSystemCompiler();
+        val lines = sourceCode.split("[\n\r]");
+        val statements = new ArrayList<TagStatement>();
+        for (int lineIndex = 0; lineIndex < lines.length; lineIndex++) {
+            val parser = compiler.new Parser(lines[lineIndex], lineIndex);
+            if (parser.Count() == 0 || parser.Peek() == '#') {
+                continue;
+            }
+            try {
+                val statement = parser.Asign();
+                if (statement != null) {
+                    statements.add(statement);
+                }
+            } catch (Exception ex) {
+                // The evaluation stops at this line, the following lines are never reached
+                statements.add(new TagStatement.Failure(parser.failure(ex)));
+                break;
+            }
+        }
+        val pathNameSlot = compiler.variableSlot("PathName");
+        val fileNameSlot = compiler.variableSlot("FileName");
+        return new TagScript(compiler.variableSlots, compiler.functionSlots.size(), statements.toArray(TagStatement[]::new),
+                pathNameSlot, fileNameSlot);
+    }
+
+    private int variableSlot(String name) {
+        return variableSlots.computeIfAbsent(name, _ -> variableSlots.size());
+    }
+
+    private int functionSlot(String name) {
+        return functionSlots.computeIfAbsent(name, _ -> functionSlots.size());
+    }
+
+    private TagExpression compileFunctionBody(String code) {
+        val parser = new Parser(code, 0);
+        try {
+            parser.SkipEmpty();
+            // Anything after the expression list is ignored
+            return parser.ExpressionList();
+        } catch (Exception ex) {
+            return parser.failure(ex);
+        }
+    }
+
+    private class Parser {
+        private final String src;
+        private final int lineIndex;
+        private int charIndex;
+        // Completed expressions of the line in evaluation order, evaluated before a syntax error is reported
+        private final List<TagExpression> completed = new ArrayList<>();
+
+        private Parser(String src, int lineIndex) {
+            this.src = src;
+            this.lineIndex = lineIndex;
+        }
+
+        private TagExpression failure(Exception ex) {
+            return new TagExpression.Failure(completed.toArray(TagExpression[]::new), ex.getMessage(), lineIndex, charIndex);
+        }
+
+        private TagExpression complete(int mark, TagExpression expression) {
+            completed.subList(mark, completed.size()).clear();
+            completed.add(expression);
+            return expression;
+        }
+
+        // <editor-fold defaultstate="collapsed" desc="Parsing">
+        private TagStatement Asign() throws Exception {
+            SkipEmpty();
+            if (EOL()) {
+                return null;
+            }
+
+            Check(Character.isLetter(Peek()), "Expected 'Name' construct");
+            String varName = Name();
+
+            ArrayList<String> paramNames = null;
+            if (Peek() == '(') {
+                Advance();
+                SkipEmpty();
+
+                paramNames = new ArrayList<>();
+                while (Peek() != ')') {
+                    paramNames.add(Name());
+
+                    SkipEmpty();
+                    if (Peek() != ')') {
+                        Check(",", "Missing parameter delimiter ,");
+                        SkipEmpty();
+                        Check(Peek() != ')', "Empty parameternames are not allowed");
+                        SkipEmpty();
+                    }
+                }
+                Check(")", "Function definition is missing closure character )");
+            }
+
+            SkipEmpty();
+            Check(":=", "Missing asignment :=");
+
+            if (paramNames != null) {
+                val parameterSlots = paramNames.stream().mapToInt(TagSystemCompiler.this::variableSlot).toArray();
+                return new TagStatement.Define(functionSlot(varName), new TagFunction(parameterSlots, compileFunctionBody(ReadToEnd())));
+
+            } else if (Character.isLetter(Peek())) {
+                return new TagStatement.AssignResult(variableSlot(varName), Asign());
+
+            } else {
+                SkipEmpty();
+                TagExpression varValue = ExpressionList();
+
+                SkipEmpty();
+                Check(EOL(), "Expected end of line.");
+
+                return new TagStatement.Assign(variableSlot(varName), varValue);
+            }
+        }
+
+        private TagExpression ExpressionList() throws Exception {
+            int mark = completed.size();
+            List<TagExpression> parts = new ArrayList<>();
+            while (!EOL() && !IsDelimiter()) {
+                parts.add(Expression());
+                SkipEmpty();
+            }
+            return complete(mark, TagExpression.concat(parts));
+        }
+
+        private TagExpression Expression() throws Exception {
+            switch (Peek()) {
+                case '"':
+                case '\'':
+                case '´':
+                    return Value();
+                case '%':
+                    return Variable();
+                case '[':
+                    return Choose();
+                case '{':
+                    return Condition();
+                case '$':
+                    return Function();
+                case '#':
+                    ReadToEnd();
+                    return new TagExpression.Constant("");
+                default:
+                    throw new Exception("Unknown construct");
+            }
+        }
+
+        private TagExpression Function() throws Exception {
+            int mark = completed.size();
+            Check("$", "Invalid beginning of a 'Function' construct");
+            String funcName = Name();
+            Check("(", "Function is missing opening bracket");
+
+            SkipEmpty();
+            List<TagExpression> params = new ArrayList<>();
+            while (!EOL() && Peek() != ')') {
+                params.add(ExpressionList());
+                SkipEmpty();
+                if (Peek() != ')') {
+                    Check(",", "Missing parameter delimiter ,");
+                }
+                SkipEmpty();
+            }
+
+            Check(")", "Function is missing closure character )");
+
+            val arguments = params.toArray(TagExpression[]::new);
+            return complete(mark, new TagExpression.Call(funcName, functionSlot(funcName), TagBuiltins.get(funcName, arguments),
+                    arguments, lineIndex, charIndex));
+        }
+
+        private TagExpression Choose() throws Exception {
+            int mark = completed.size();
+            Check("[", "Invalid beginning of a 'Choose' construct");
+
+            SkipEmpty();
+            List<TagExpression> options = new ArrayList<>();
+            while (!EOL() && Peek() != ']') {
+                options.add(ExpressionList());
+                SkipEmpty();
+                if (Peek() != ']') {
+                    Check(",", "Missing parameter delimiter ,");
+                }
+                SkipEmpty();
+            }
+
+            Check("]", "Choose is missing closure character ]");
+
+            return complete(mark, new TagExpression.Choose(options.toArray(TagExpression[]::new)));
+        }
+
+        private TagExpression Condition() throws Exception {
+            int mark = completed.size();
+            Check("{", "Invalid beginning of a 'Condition' construct");
+
+            SkipEmpty();
+            TagExpression condA = ExpressionList();
+
+            SkipEmpty();
+            TagExpression condB = null;
+            if (Peek() == '=') {
+                Advance();
+                SkipEmpty();
+                condB = ExpressionList();
+            }
+
+            SkipEmpty();
+            Check("?", "Missing condition delimiter '?'");
+
+            SkipEmpty();
+            TagExpression trueVal = ExpressionList();
+
+            SkipEmpty();
+            Check(":", "Missing true/false delimiter ':'");
+
+            SkipEmpty();
+            TagExpression falseVal = ExpressionList();
+
+            Check("}", "Condition is missing closure character }");
+
+            return complete(mark, new TagExpression.Condition(condA, condB, trueVal, falseVal));
+        }
+
+        private TagExpression Variable() throws Exception {
+            Check("%", "Invalid beginning of a 'Variable' construct");
+
+            StringBuilder varName = new StringBuilder();
+            while (!EOL() && Peek() != '%') {
+                varName.append(Read());
+            }
+            Check("%", "Variable is missing closure character %");
+
+            return new TagExpression.Variable(variableSlot(varName.toString()));
+        }
+
+        private TagExpression Value() throws Exception {
+            char delimiter = Peek() == '"' ? '"' : '\'';
+
+            Check(delimiter + "", "Invalid beginning of a 'Value' construct");
+
+            StringBuilder value = new StringBuilder();
+            while (!EOL() && Peek() != delimiter) {
+                value.append(Read());
+            }
+
+            Check(delimiter + "", "Value is missing closure character " + delimiter);
+
+            return new TagExpression.Constant(value.toString());
+        }
+
+        private String Name() throws Exception {
+            Check(Character.isLetter(Peek()), "Invalid beginning of a 'Name' construct");
+
+            StringBuilder name = new StringBuilder().append(Read());
+            while (!EOL() && (Character.isLetter(Peek()) || Character.isDigit(Peek()))) {
+                name.append(Read());
+            }
+
+            return name.toString();
+        }
+        // </editor-fold>
+
+        // <editor-fold defaultstate="collapsed" desc="Help Methods">
+        private char Peek() {
+            return src.charAt(charIndex);
+        }
+
+        private char Read() {
+            char srcChar = Peek();
+
+            Advance();
+            return srcChar;
+        }
+
+        private String ReadToEnd() {
+            String val = src.substring(charIndex);
+            charIndex = src.length();
+            return val;
+        }
+
+        private void SkipEmpty() {
+            while (!EOL() && Peek() == ' ') {
+                Advance();
+            }
+        }
+
+        private void Advance() {
+            charIndex++;
+        }
+
+        private int Count() {
+            return src.length();
+        }
+
+        private boolean EOL() {
+            return Count() == charIndex;
+        }
+
+        private void Check(String match, String errorMsg) throws Exception {
+            if (!src.startsWith(match, charIndex)) {
+                throw new Exception(errorMsg);
+            }
+            charIndex += match.length();
+        }
+
+        private void Check(boolean isValid, String errorMsg) throws Exception {
+            if (!isValid) {
+                throw new Exception(errorMsg);
+            }
+        }
+
+        private boolean IsDelimiter() {
+            for (char delimiter : delimiters) {
+                if (delimiter == Peek()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        // </editor-fold>
+    }
+}
@@ -0,0 +1,18 @@
+package processing.tagsystem;
+
+import lombok.Getter;
+
+/**
+ * Error of a tag system script, the position is zero based
+ */
+@Getter
+class TagSystemException extends Exception {
+    private final int line;
+    private final int column;
+
+    TagSystemException(String message, int line, int column) {
+        super(message);
+        this.line = line;
+        this.column = column;
+    }
+}
@@ -3,10 +3,12 @@ package udpapi;
 import aniAdd.config.AniConfiguration;
 import aniAdd.misc.ICallBack;
 import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 import lombok.Synchronized;
 import lombok.extern.java.Log;
 import lombok.val;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import udpapi.command.*;
 import udpapi.query.Query;
 import udpapi.receive.Receive;
@@ -29,6 +31,12 @@ public class UdpApi implements AutoCloseable, Receive.Integration, Send.Integrat
     final Map<Class<? extends Command>, List<IQueryCallback<?>>> commandCallbacks = new ConcurrentHashMap<>();
     final Map<ReplyStatus, List<IReplyStatusCallback>> replyStatusCallbacks = new ConcurrentHashMap<>();
     private Command commandInFlight = null;
+    /**
+     * Asked for a command whenever the queue runs empty while logged in, instead of idling until the logout
+     */
+    @Setter @Nullable private IdleCommandSource idleCommandSource;
+    private Command idleCommand = null;
+    private Date idleSince = null;
 
     private DatagramSocket socket;
     private final ScheduledExecutorService executorService;
@@ -180,10 +188,16 @@ public class UdpApi implements AutoCloseable, Receive.Integration, Send.Integrat
                 QueryId.reset();
             }
             if (loginStatus == LoginStatus.LOGGED_IN) {
-                queueLogout(false);
+                if (idleSince == null) {
+                    idleSince = new Date();
+                }
+                if (!scheduleIdleCommand()) {
+                    queueLogout(false);
+                }
             }
             return;
         }
+        idleSince = null;
         if (logoutFuture != null) {
             logoutFuture.cancel(false);
             logoutFuture = null;
@@ -199,6 +213,47 @@ public class UdpApi implements AutoCloseable, Receive.Integration, Send.Integrat
         scheduleCommand(command, getNextSendDelay());
     }
 
+    /**
+     * Sends a command of the {@link IdleCommandSource} in the slot the queue left unused. Idle commands are only sent
+     * while logged in and stop early enough for the answer to arrive before the logout, so they neither log in nor
+     * keep the session alive.
+     *
+     * @return true if a command was scheduled
+     */
+    private boolean scheduleIdleCommand() {
+        val source = idleCommandSource;
+        if (source == null || shutdown) {
+            return false;
+        }
+        val delay = getNextSendDelay();
+        val done = getIdleDuration().plus(delay).plus(UdpApiConfiguration.MAX_RESPONSE_WAIT_TIME);
+        if (done.compareTo(UdpApiConfiguration.LOGOUT_AFTER) >= 0) {
+            return false;
+        }
+        val command = source.nextIdleCommand();
+        if (command == null) {
+            return false;
+        }
+        idleCommand = command;
+        scheduleCommand(command, delay);
+        return true;
+    }
+
+    private void idleCommandDropped(Command command) {
+        val source = idleCommandSource;
+        if (source != null) {
+            source.idleCommandDropped(command);
+        }
+    }
+
+    private Duration getIdleDuration() {
+        return idleSince == null ? Duration.ZERO : Duration.ofMillis(new Date().getTime() - idleSince.getTime());
+    }
+
+    private boolean isIdleCommand(Command command) {
+        return command != null && command == idleCommand;
+    }
+
     private void scheduleCommand(@NotNull Command command, Duration delay) {
         log.info(STR."Scheduling command \{command.toString()} in \{delay.toMillis()}ms at \{formatDelay(delay)}");
         executorService.schedule(new Send<>(this, command, aniDbIp, aniDbPort), delay.toMillis(), TimeUnit.MILLISECONDS);
@@ -261,6 +316,13 @@ public class UdpApi implements AutoCloseable, Receive.Integration, Send.Integrat
         if (command == null || command instanceof  LoginCommand || command instanceof LogoutCommand) {
             return;
         }
+        if (isIdleCommand(command)) {
+            // Idle commands are not worth a retry, the source asks again later
+            log.fine(STR."Dropping idle command: \{command}");
+            idleCommandDropped(command);
+            scheduleNextCommand();
+            return;
+        }
         log.info(STR."Rescheduling command: \{command}");
         commandQueue.add(command);
         scheduleNextCommand();
@@ -290,6 +352,9 @@ public class UdpApi implements AutoCloseable, Receive.Integration, Send.Integrat
     private void handleQueryError(Query<?> query) {
         if (query.getReply().isFatal()) {
             log.warning(STR."Fatal api error, waiting a long time: \{query.toString()}");
+            if (isIdleCommand(query.getCommand())) {
+                idleCommandDropped(query.getCommand());
+            }
             disconnect();
         } else {
             // TODO: Handle with reply status callbacks (improve those)
@@ -302,6 +367,12 @@ public class UdpApi implements AutoCloseable, Receive.Integration, Send.Integrat
                     return;
                 }
             }
+            if (isIdleCommand(query.getCommand())) {
+                log.fine(STR."Dropping failed idle query: \{query.toString()}");
+                idleCommandDropped(query.getCommand());
+                scheduleNextCommand();
+                return;
+            }
             log.warning(STR."Retrying query later: \{query.toString()}");
             queueCommand(query.getCommand());
         }
@@ -312,7 +383,9 @@ public class UdpApi implements AutoCloseable, Receive.Integration, Send.Integrat
             log.warning("Not logged in, not logging out");
             return;
         }
-        val delay = now ? Duration.ZERO : UdpApiConfiguration.LOGOUT_AFTER;
+        // Idle commands sent since the queue ran empty do not postpone the logout
+        val remaining = UdpApiConfiguration.LOGOUT_AFTER.minus(getIdleDuration());
+        val delay = now || remaining.isNegative() ? Duration.ZERO : remaining;
         log.info(STR."Queuing logout in \{delay.toMillis()}ms at \{formatDelay(delay)}");
         if (logoutFuture != null) {
             logoutFuture.cancel(false);
@@ -407,6 +480,20 @@ public class UdpApi implements AutoCloseable, Receive.Integration, Send.Integrat
         void invoke(Query<T> query);
     }
 
+    public interface IdleCommandSource {
+        /**
+         * @return a command to send while no other commands are queued or null if there is nothing to do
+         */
+        @Nullable
+        Command nextIdleCommand();
+
+        /**
+         * Called instead of any reply callback if the command was not answered in time or failed, it is not sent again
+         */
+        default void idleCommandDropped(Command command) {
+        }
+    }
+
     public interface IReplyStatusCallback {
         void invoke(udpapi.reply.ReplyStatus status);
     }
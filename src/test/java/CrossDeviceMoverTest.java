@@ -0,0 +1,70 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import processing.CrossDeviceMover;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CrossDeviceMoverTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void Should_ContinuePartialCopy_AndVerifyIt() throws IOException {
+        var content = new byte[10_000_000];
+        new Random(1).nextBytes(content);
+        var source = Files.write(directory.resolve("source.mkv"), content);
+        var target = directory.resolve("target.mkv");
+        // Left over by an interrupted move
+        Files.write(directory.resolve("target.mkv.part"), Arrays.copyOf(content, 3_000_000));
+
+        new CrossDeviceMover().move(source, target, null);
+
+        assertArrayEquals(content, Files.readAllBytes(target));
+        assertFalse(Files.exists(source));
+        assertFalse(Files.exists(directory.resolve("target.mkv.part")));
+    }
+
+    @Test
+    public void Should_CopyAgain_WhenPartialCopyDoesNotMatch() throws IOException {
+        var content = new byte[1_000_000];
+        new Random(2).nextBytes(content);
+        var source = Files.write(directory.resolve("source.mkv"), content);
+        var target = directory.resolve("target.mkv");
+        Files.write(directory.resolve("target.mkv.part"), new byte[500_000]);
+
+        new CrossDeviceMover().move(source, target, null);
+
+        assertArrayEquals(content, Files.readAllBytes(target));
+    }
+
+    @Test
+    public void Should_KeepPermissions() throws IOException {
+        var source = Files.writeString(directory.resolve("source.mkv"), "content");
+        Files.setPosixFilePermissions(source, PosixFilePermissions.fromString("rw-r-----"));
+        var target = directory.resolve("target.mkv");
+
+        new CrossDeviceMover().move(source, target, null);
+
+        assertEquals("rw-r-----", PosixFilePermissions.toString(Files.getPosixFilePermissions(target)));
+    }
+
+    @Test
+    public void Should_KeepSource_WhenHashDoesNotMatch() throws IOException {
+        var source = Files.writeString(directory.resolve("source.mkv"), "content");
+        var target = directory.resolve("target.mkv");
+
+        assertThrows(IOException.class, () -> new CrossDeviceMover().move(source, target, "00000000000000000000000000000000"));
+
+        assertTrue(Files.exists(source));
+        assertFalse(Files.exists(target));
+        assertFalse(Files.exists(directory.resolve("target.mkv.part")));
+    }
+}
@@ -0,0 +1,60 @@
+import aniAdd.config.AniConfiguration;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import processing.FileHandler;
+import processing.FileRenamer;
+import processing.LibraryReorganizer;
+import processing.cache.CachedFile;
+import processing.cache.FileCache;
+import processing.cache.Fingerprint;
+import processing.tagsystem.TagSystemTags;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LibraryReorganizerTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void Should_MoveFiles_WithoutReadingTheirContent() throws IOException, InterruptedException {
+        var source = Files.writeString(directory.resolve("episode.mkv"), "original content");
+        var lastModified = Files.getLastModifiedTime(source);
+        var fileCache = FileCache.open(Files.createDirectory(directory.resolve("cache")).toString());
+        fileCache.put(source, Map.of(TagSystemTags.Ed2kHash, "0123456789abcdef0123456789abcdef",
+                TagSystemTags.FileAnidbFilename, "Show - 01"), null, 0);
+        var fingerprint = fileCache.get(source).map(CachedFile::fingerprint).orElseThrow();
+        // Same size and modification date, only a read of the content could tell the difference
+        Files.writeString(source, "modified content");
+        Files.setLastModifiedTime(source, lastModified);
+
+        var library = Files.createDirectory(directory.resolve("library"));
+        var configuration = AniConfiguration.builder()
+                .enableFileMove(true)
+                .moveTypeUseFolder(true)
+                .moveToFolder(library.toString())
+                .enableFileRenaming(true)
+                .renameTypeAniDBFileName(true)
+                .build();
+        var reorganizer = new LibraryReorganizer(configuration, fileCache, new FileRenamer(new FileHandler()));
+        var plan = reorganizer.plan();
+        LibraryReorganizer.Result result;
+        try (fileCache; var executor = Executors.newSingleThreadExecutor()) {
+            result = reorganizer.execute(plan, executor);
+        }
+
+        var target = library.resolve("Show - 01.mkv");
+        assertEquals(1, result.moved());
+        assertTrue(Files.exists(target));
+        assertTrue(fileCache.get(source).isEmpty());
+        assertEquals(fingerprint, fileCache.get(target).map(CachedFile::fingerprint).orElseThrow());
+        assertNotEquals(Fingerprint.of(target), fingerprint);
+    }
+}
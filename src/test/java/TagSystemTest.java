@@ -0,0 +1,202 @@
+import org.junit.jupiter.api.Test;
+import processing.tagsystem.TagScript;
+import processing.tagsystem.TagSystem;
+import processing.tagsystem.TagSystemTags;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TagSystemTest {
+
+    @Test
+    public void Should_Evaluate_VariablesChooseAndBuiltins() throws Exception {
+        var result = TagSystem.Evaluate("""
+                # comment
+                Base:=%BaseTVShowPath% %ATr%
+                PathName:=$repl(%Base%, "\\s*\\(\\d+\\)$", "")
+                Ep:=$pad(%EpNo%, $len(%EpCount%), "0")
+                FileName:=%ATr% " - " %Ep% [%GTs%, " " %ETr%, " " %ETe%]""", getTags());
+
+        assertEquals("/tv/Suzumiya Haruhi no Yuuutsu", result.PathName());
+        assertEquals("Suzumiya Haruhi no Yuuutsu (2009) - 01 ", result.FileName());
+    }
+
+    @Test
+    public void Should_Evaluate_FunctionsWithCallerVariables() throws Exception {
+        var result = TagSystem.Evaluate("""
+                Dash(x):={%x% ? " - " %x% : ""}
+                Shout(x):=$uc(%x%) %suffix%
+                suffix:="!"
+                FileName:=$Shout(%ETe%) $Dash(%GTs%) $Dash(%EpNo%)""", getTags());
+
+        assertNull(result.PathName());
+        assertEquals("BAMBOO LEAF RHAPSODY?! - 1", result.FileName());
+    }
+
+    @Test
+    public void Should_AbortEndlessRecursion() {
+        // Both branches of a condition are always evaluated
+        var exception = assertThrows(Exception.class, () -> TagSystem.Evaluate("""
+                Count(n):={%n% = "0" ? "" : %n% $Count($sub(%n%, "1"))}
+                FileName:=$Count("5")""", getTags()));
+
+        assertEquals("20. function call. Aborted | Error at Row: 2 Column: 22", exception.getMessage());
+    }
+
+    @Test
+    public void Should_ReportFirstError_WithPosition() {
+        var runtimeError = assertThrows(Exception.class, () -> TagSystem.Evaluate("""
+                FileName:="a"
+                PathName:=$div(%EpNo%, "0") "b""", getTags()));
+        var syntaxError = assertThrows(Exception.class, () -> TagSystem.Evaluate("""
+                FileName:={%ATr% = "x" ? "y" "z\"""", getTags()));
+
+        assertEquals("/ by zero | Error at Row: 2 Column: 28", runtimeError.getMessage());
+        assertEquals("Missing true/false delimiter ':' | Error at Row: 1 Column: 33", syntaxError.getMessage());
+    }
+
+    @Test
+    public void Should_AssignNull_ForAssignmentOfAssignment() throws Exception {
+        // Results of the interpreter the compiled scripts replaced
+        var nested = TagSystem.Evaluate("""
+                FileName:=A:=B:="q"
+                PathName:=%A% "|" %B%""", getTags());
+        var chained = TagSystem.Evaluate("""
+                X:=FileName:=PathName:="q\"""", getTags());
+
+        assertNull(nested.FileName());
+        assertEquals("q|q", nested.PathName());
+        assertEquals("q", chained.FileName());
+        assertEquals("q", chained.PathName());
+    }
+
+    @Test
+    public void Should_RejectPatterns_WithNestedUnboundedQuantifiers() throws Exception {
+        var result = TagSystem.Evaluate("""
+                Len:="3"
+                PathName:=$repl(%ATr%, "(.?){" %Len% "}$", "") $match(%EpNo%, "\\d+")
+                FileName:=$repl(%ETe%, "(\\w+\\s?)++\\?", "x")""", getTags());
+        var exception = assertThrows(Exception.class, () -> TagSystem.Evaluate("""
+                FileName:=$match(%ETe%, "(\\w+)*$")""", getTags()));
+
+        assertEquals("Suzumiya Haruhi no Yuuutsu (201", result.PathName());
+        assertEquals("x", result.FileName());
+        assertEquals("Pattern could cause catastrophic backtracking (nested unbounded quantifiers): (\\w+)*$ | Error at Row: 1 Column: 35",
+                exception.getMessage());
+    }
+
+    @Test
+    public void Should_AcceptRepeatedGroups_WithMoreThanOneAtom() throws Exception {
+        // Results of the interpreter the compiled scripts replaced
+        var result = TagSystem.Evaluate("""
+                Src:="[Grp] [1080p] Title (2009) (TV) - "
+                A:=$repl(%Src%, "(\\[[^\\]]*\\]\\s*)+", "")
+                B:=$repl(%A%, "(?:\\s*-\\s*)+$", "")
+                C:=$repl(%B%, "(\\s*\\([^)]*\\))+$", "")
+                D:=$repl("ab12cd3 x", "([a-z]+[0-9]*)*", "_")
+                E:=$repl("one two three", "^(\\w+ )*", "")
+                FileName:=%A% "|" %B% "|" %C%
+                PathName:=%D% "|" %E%""", getTags());
+
+        assertEquals("Title (2009) (TV) - |Title (2009) (TV)|Title", result.FileName());
+        assertEquals("__ __|three", result.PathName());
+    }
+
+    @Test
+    public void Should_MemoiseResults_WithoutSkippingErrors() throws Exception {
+        var script = TagSystem.Compile("""
+                Unused:=$div("12", %EpNo%)
+                PathName:=%BaseTVShowPath% %ATr%
+                FileName:=%ATr% " - " $pad(%EpNo%, "2", "0")""");
+        var tags = getTags();
+
+        for (int episode = 1; episode <= 3; episode++) {
+            tags.put(TagSystemTags.EpisodeNumber, String.valueOf(episode));
+            var result = script.Evaluate(tags);
+            assertEquals("/tv/Suzumiya Haruhi no Yuuutsu (2009)", result.PathName());
+            assertEquals("Suzumiya Haruhi no Yuuutsu (2009) - 0" + episode, result.FileName());
+        }
+        tags.put(TagSystemTags.EpisodeNumber, "0");
+        var exception = assertThrows(Exception.class, () -> script.Evaluate(tags));
+        tags.put(TagSystemTags.EpisodeNumber, "1");
+        tags.put(TagSystemTags.SeriesNameRomaji, "Hyouka");
+
+        assertEquals("/ by zero | Error at Row: 1 Column: 27", exception.getMessage());
+        assertEquals("/tv/Hyouka", script.Evaluate(tags).PathName());
+    }
+
+    @Test
+    public void Should_EvaluateSharedScript_FromManyThreadsAtOnce() throws Exception {
+        // Nested calls close to the recursion limit, fail if the depth of other evaluations is counted
+        var source = new StringBuilder();
+        for (int depth = 1; depth < 18; depth++) {
+            source.append("Level").append(depth).append("(x):=$Level").append(depth + 1).append("(%x%)\n");
+        }
+        source.append("""
+                Level18(x):=$lc(%x%)
+                Dash(x):={%x% ? " - " %x% : ""}
+                Ep(n):=$pad(%n%, $len(%EpCount%), "0")
+                PathName:=%BaseTVShowPath% $Level1(%ATr%) $div("1", {%EpNo% = "13" ? "0" : "1"})
+                FileName:=%ATr% $Dash($Ep(%EpNo%)) $Dash(%ETe%)""");
+        var script = TagSystem.Compile(source.toString());
+        List<String> expected = new ArrayList<>();
+        for (int episode = 0; episode < 64; episode++) {
+            expected.add(evaluate(script, episode));
+        }
+
+        var threads = 32;
+        var executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Callable<List<String>>> tasks = new ArrayList<>();
+            for (int thread = 0; thread < threads; thread++) {
+                tasks.add(() -> {
+                    List<String> results = new ArrayList<>();
+                    for (int iteration = 0; iteration < 200; iteration++) {
+                        results.add(evaluate(script, iteration % 64));
+                    }
+                    return results;
+                });
+            }
+            for (var future : executor.invokeAll(tasks)) {
+                var results = future.get();
+                for (int iteration = 0; iteration < results.size(); iteration++) {
+                    assertEquals(expected.get(iteration % 64), results.get(iteration));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals("/tv/suzumiya haruhi no yuuutsu (2009)1|Suzumiya Haruhi no Yuuutsu (2009) - 01 - Bamboo Leaf Rhapsody?", expected.get(1));
+        assertEquals("/ by zero | Error at Row: 21 Column: 81", expected.get(13));
+    }
+
+    private static String evaluate(TagScript script, int episode) {
+        var tags = getTags();
+        tags.put(TagSystemTags.EpisodeNumber, String.valueOf(episode));
+        try {
+            var result = script.Evaluate(tags);
+            return result.PathName() + "|" + result.FileName();
+        } catch (Exception e) {
+            return e.getMessage();
+        }
+    }
+
+    private static Map<TagSystemTags, String> getTags() {
+        Map<TagSystemTags, String> tags = new HashMap<>();
+        tags.put(TagSystemTags.SeriesNameRomaji, "Suzumiya Haruhi no Yuuutsu (2009)");
+        tags.put(TagSystemTags.EpisodeNameEnglish, "Bamboo Leaf Rhapsody?");
+        tags.put(TagSystemTags.EpisodeNumber, "1");
+        tags.put(TagSystemTags.EpisodeCount, "14");
+        tags.put(TagSystemTags.GroupNameShort, null);
+        tags.put(TagSystemTags.BaseTvShowPath, "/tv/");
+        return tags;
+    }
+}
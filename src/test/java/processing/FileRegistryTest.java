@@ -0,0 +1,220 @@
+package processing;
+
+import aniAdd.config.AniConfiguration.HardLinkPolicy;
+import aniAdd.config.AniConfiguration.HashOrder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import processing.tagsystem.TagSystemTags;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FileRegistryTest {
+
+    @TempDir
+    Path directory;
+
+    private final List<FileInfo> evicted = new ArrayList<>();
+    private int nextId;
+
+    @Test
+    public void Should_HashOnlyTheFirstLink() throws IOException {
+        var registry = createRegistry(Duration.ofHours(1), 100);
+        var first = createFile("first.mkv");
+        var link = createLink("link.mkv", first);
+        var other = createFile("other.mkv");
+
+        registry.put(first);
+        registry.put(link);
+        registry.put(other);
+
+        assertEquals(List.of(first, other), pollAllUnhashed(registry));
+    }
+
+    @Test
+    public void Should_HashLinksOnTheirOwn_WhenTheHashedLinkFailed() throws IOException {
+        var registry = createRegistry(Duration.ofHours(1), 100);
+        var first = createFile("first.mkv");
+        var link = createLink("link.mkv", first);
+
+        registry.put(first);
+        first.actionFailed(FileInfo.FileAction.Process);
+        registry.put(link);
+
+        assertEquals(List.of(first, link), pollAllUnhashed(registry));
+    }
+
+    @Test
+    public void Should_HandTheHashToTheUnhashedLinks() throws IOException {
+        var registry = createRegistry(Duration.ofHours(1), 100);
+        var first = createFile("first.mkv");
+        var link = createLink("link.mkv", first);
+        var other = createFile("other.mkv");
+        registry.put(first);
+        registry.put(link);
+        registry.put(other);
+
+        hash(first);
+
+        assertEquals(List.of(link), registry.takeUnhashedLinks(first));
+        assertTrue(link.isHashed());
+        assertEquals(List.of(), registry.takeUnhashedLinks(first));
+        assertEquals(List.of(), registry.takeUnhashedLinks(other));
+    }
+
+    @Test
+    public void Should_TakeTheHashOfAHashedLink() throws IOException {
+        var registry = createRegistry(Duration.ofHours(1), 100);
+        var first = createFile("first.mkv");
+        var link = createLink("link.mkv", first);
+        registry.put(first);
+        registry.put(link);
+
+        assertEquals(Optional.empty(), registry.takeHashedLink(link));
+        hash(first);
+
+        assertEquals(Optional.of(first), registry.takeHashedLink(link));
+        assertTrue(link.isHashed());
+        assertEquals(Optional.empty(), registry.takeHashedLink(first));
+    }
+
+    @Test
+    public void Should_RenameLinks_AccordingToPolicy() throws IOException {
+        var registry = createRegistry(Duration.ofHours(1), 100);
+        var first = createFile("first.mkv");
+        var link = createLink("link.mkv", first);
+        var other = createFile("other.mkv");
+        registry.put(first);
+        registry.put(link);
+        registry.put(other);
+
+        assertTrue(registry.isRenamedLink(first, HardLinkPolicy.ALL));
+        assertTrue(registry.isRenamedLink(link, HardLinkPolicy.ALL));
+        assertTrue(registry.isRenamedLink(first, HardLinkPolicy.FIRST_FOUND));
+        assertFalse(registry.isRenamedLink(link, HardLinkPolicy.FIRST_FOUND));
+        assertFalse(registry.isRenamedLink(first, HardLinkPolicy.LAST_FOUND));
+        assertTrue(registry.isRenamedLink(link, HardLinkPolicy.LAST_FOUND));
+        for (var policy : HardLinkPolicy.values()) {
+            assertTrue(registry.isRenamedLink(other, policy));
+        }
+    }
+
+    @Test
+    public void Should_ForgetEvictedLinks() throws IOException {
+        var registry = createRegistry(Duration.ofHours(1), 0);
+        var first = createFile("first.mkv");
+        var link = createLink("link.mkv", first);
+        registry.put(first);
+        registry.put(link);
+
+        registry.markFinished(first);
+
+        assertEquals(List.of(first), evicted);
+        assertFalse(registry.contains(first.getFile()));
+        // The remaining link is the only one of its group now
+        assertTrue(registry.isRenamedLink(link, HardLinkPolicy.FIRST_FOUND));
+        hash(first);
+        assertEquals(Optional.empty(), registry.takeHashedLink(link));
+    }
+
+    @Test
+    public void Should_EvictTheOldestFinishedFiles_WhenThereAreTooMany() throws IOException {
+        var registry = createRegistry(Duration.ofHours(1), 2);
+        var files = List.of(createFile("a.mkv"), createFile("b.mkv"), createFile("c.mkv"), createFile("d.mkv"));
+        files.forEach(registry::put);
+
+        files.subList(0, 3).forEach(registry::markFinished);
+
+        assertEquals(List.of(files.get(0)), evicted);
+        assertTrue(registry.isProcessed(files.get(1).getFile()));
+        assertTrue(registry.isProcessed(files.get(2).getFile()));
+        assertFalse(registry.isIdle());
+
+        registry.markFinished(files.get(3));
+        registry.evictFinished();
+
+        assertEquals(files, evicted);
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void Should_EvictFinishedFiles_AfterTheRetention() throws IOException, InterruptedException {
+        var registry = createRegistry(Duration.ofMillis(50), 100);
+        var old = createFile("old.mkv");
+        var recent = createFile("recent.mkv");
+        registry.put(old);
+        registry.put(recent);
+
+        registry.markFinished(old);
+        Thread.sleep(100);
+        registry.markFinished(recent);
+
+        assertEquals(List.of(old), evicted);
+        assertTrue(registry.isProcessed(recent.getFile()));
+    }
+
+    @Test
+    public void Should_EvictOutsideTheLock() throws IOException {
+        var registry = new FileRegistry[1];
+        var locked = new ArrayList<Boolean>();
+        registry[0] = new FileRegistry(Duration.ofHours(1), 0, _ -> locked.add(Thread.holdsLock(registry[0])), new HashQueue(HashOrder.ARRIVAL));
+        var file = createFile("file.mkv");
+        registry[0].put(file);
+
+        registry[0].markFinished(file);
+
+        assertEquals(List.of(false), locked);
+    }
+
+    @Test
+    public void Should_ForgetFailedFiles_SoTheyAreProcessedAgain() throws IOException {
+        var registry = createRegistry(Duration.ofHours(1), 100);
+        var failed = createFile("failed.mkv");
+        var processed = createFile("processed.mkv");
+        registry.put(failed);
+        registry.put(processed);
+        failed.actionFailed(FileInfo.FileAction.FileCmd);
+        registry.markFinished(failed);
+        registry.markFinished(processed);
+
+        assertFalse(registry.isProcessed(failed.getFile()));
+        assertFalse(registry.removeFailed(processed.getFile()));
+        assertTrue(registry.removeFailed(failed.getFile()));
+        assertFalse(registry.contains(failed.getFile()));
+        assertTrue(registry.isIdle());
+    }
+
+    private FileRegistry createRegistry(Duration retention, int maxFinished) {
+        return new FileRegistry(retention, maxFinished, evicted::add, new HashQueue(HashOrder.ARRIVAL));
+    }
+
+    private FileInfo createFile(String name) throws IOException {
+        return new FileInfo(Files.writeString(directory.resolve(name), name).toFile(), nextId++);
+    }
+
+    private FileInfo createLink(String name, FileInfo target) throws IOException {
+        return new FileInfo(Files.createLink(directory.resolve(name), target.getFile().toPath()).toFile(), nextId++);
+    }
+
+    private static void hash(FileInfo fileInfo) {
+        fileInfo.setHashed(true);
+        fileInfo.getData().put(TagSystemTags.Ed2kHash, "0123456789abcdef0123456789abcdef");
+        fileInfo.actionDone(FileInfo.FileAction.Process);
+    }
+
+    private static List<FileInfo> pollAllUnhashed(FileRegistry registry) {
+        var files = new ArrayList<FileInfo>();
+        HashQueue.Entry entry;
+        while ((entry = registry.pollUnhashed(_ -> 0).orElse(null)) != null) {
+            files.add(entry.file());
+        }
+        return files;
+    }
+}